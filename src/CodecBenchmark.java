@@ -0,0 +1,157 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CodecBenchmark {
+
+    /*Measures every postings codec on a synthetic corpus, since the real corpus is too small to say much about compression. Term document frequencies follow
+    a Zipf-like curve, docIDs are spread over the corpus with random gaps and each posting has a few word positions with random gaps, which gives the same
+    mix of long dense lists and short sparse ones a real index has. Every list is cut into the same BLOCK_SIZE runs OffHeapPostings stores, docIDs less the
+    first of their run and positions chained within their run. For the docID and the position streams the benchmark reports, per codec and for the per-run
+    choice that OffHeapPostings makes, the bytes used per value (not counting the skip tables) and how many millions of values per second it decodes.
+
+    Usage: java CodecBenchmark [number of documents] [number of terms]
+    */
+    private static final long MEASURE_NANOS = 1000000000L; //Each codec decodes for at least this long after warming up.
+
+    public static void main(String[] args)
+    {
+        int docs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int terms = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        Random random = new Random(42);
+
+        ArrayList<int[]> docLists = new ArrayList<int[]>();
+        ArrayList<int[]> positionLists = new ArrayList<int[]>();
+        for(int rank = 1; rank <= terms; rank++)
+        {
+            int df = Math.max(1, Math.min(docs, (int) (docs * 0.3 / Math.pow(rank, 0.9))));
+            int[] docIds = new int[df];
+            int doc = -1;
+            double meanGap = (double) docs / df;
+            for(int i = 0; i < df; i++) //Random gaps with the right average, so the list stays sorted and spans the corpus.
+            {
+                doc += 1 + (int) (random.nextDouble() * 2 * (meanGap - 1));
+                docIds[i] = Math.min(doc, docs - df + i);
+                doc = docIds[i];
+            }
+            for(int from = 0; from < df; from += PostingsCodecs.BLOCK_SIZE)
+            {
+                int[] run = Arrays.copyOfRange(docIds, from, Math.min(df, from + PostingsCodecs.BLOCK_SIZE));
+                for(int i = run.length - 1; i >= 0; i--)
+                    run[i] -= run[0];
+                docLists.add(run);
+            }
+
+            int total = 0;
+            int[] counts = new int[df];
+            for(int i = 0; i < df; i++)
+            {
+                counts[i] = 1 + (int) (-Math.log(1 - random.nextDouble()) * 2); //Mostly one or two occurrences, occasionally many.
+                total += counts[i];
+            }
+            int[] positions = new int[total]; //Word positions of every posting, chained as OffHeapPostings stores them.
+            int at = 0;
+            for(int i = 0; i < df; i++)
+            {
+                int word = 0;
+                for(int k = 0; k < counts[i]; k++)
+                {
+                    word += 1 + random.nextInt(100);
+                    positions[at++] = word;
+                }
+            }
+            int[] chained = OffHeapPostings.chain(positions, counts);
+            for(int from = 0; from < total; from += PostingsCodecs.BLOCK_SIZE)
+                positionLists.add(Arrays.copyOfRange(chained, from, Math.min(total, from + PostingsCodecs.BLOCK_SIZE)));
+        }
+
+        System.out.println("SYNTHETIC CORPUS: " + docs + " documents, " + terms + " terms");
+        report("DOCIDS", docLists);
+        report("POSITIONS", positionLists);
+    }
+
+    private static void report(String label, ArrayList<int[]> lists) //Encodes the lists with each codec and prints its size and decode speed.
+    {
+        long values = 0;
+        int longest = 0;
+        for(int[] list: lists)
+        {
+            values += list.length;
+            longest = Math.max(longest, list.length);
+        }
+        System.out.println();
+        System.out.println(String.format("%s: %d runs, %d values", label, lists.size(), values));
+        System.out.println(String.format("%-12s %14s %16s", "CODEC", "BYTES/VALUE", "DECODE M/s"));
+
+        for(PostingsCodec codec: PostingsCodecs.all())
+            measure(codec.name(), codec, lists, values, longest);
+        measure("adaptive", null, lists, values, longest);
+    }
+
+    private static void measure(String name, PostingsCodec fixed, ArrayList<int[]> lists, long values, int longest) //A null codec means each run gets the one PostingsCodecs.choose() picks.
+    {
+        PostingsCodec[] codecs = new PostingsCodec[lists.size()];
+        long size = 0;
+        for(int i = 0; i < lists.size(); i++)
+        {
+            int[] list = lists.get(i);
+            codecs[i] = fixed != null ? fixed : PostingsCodecs.choose(list, list.length, true);
+            size += codecs[i].encodedSize(list, list.length, true);
+        }
+        if(size > Integer.MAX_VALUE)
+        {
+            System.out.println(String.format("%-12s %14s", name, "too large"));
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+        int[] offsets = new int[lists.size()];
+        for(int i = 0; i < lists.size(); i++)
+        {
+            offsets[i] = buffer.position();
+            codecs[i].encode(lists.get(i), lists.get(i).length, true, buffer);
+        }
+
+        int[] out = new int[longest];
+        int[] scratch = new int[longest + 1];
+        for(int i = 0; i < lists.size(); i++) //Check every list decodes to what was encoded before timing anything.
+        {
+            int[] list = lists.get(i);
+            codecs[i].decode(buffer, offsets[i], list.length, true, out, scratch);
+            for(int k = 0; k < list.length; k++)
+            {
+                if(out[k] != list[k])
+                    throw new IllegalStateException(name + " decoded list " + i + " incorrectly at " + k);
+            }
+        }
+
+        decodeFor(MEASURE_NANOS / 2, codecs, buffer, offsets, lists, out, scratch); //Warm up.
+        long[] result = decodeFor(MEASURE_NANOS, codecs, buffer, offsets, lists, out, scratch);
+        double seconds = result[1] / 1e9;
+        System.out.println(String.format("%-12s %14.3f %16.1f", name, (double) size / values, result[0] / seconds / 1e6));
+    }
+
+    private static long[] decodeFor(long nanos, PostingsCodec[] codecs, ByteBuffer buffer, int[] offsets, ArrayList<int[]> lists, int[] out, int[] scratch) //Decodes every list repeatedly. Returns values decoded and nanoseconds taken.
+    {
+        long decoded = 0;
+        long checksum = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do
+        {
+            for(int i = 0; i < lists.size(); i++)
+            {
+                int n = lists.get(i).length;
+                codecs[i].decode(buffer, offsets[i], n, true, out, scratch);
+                checksum += out[n - 1];
+                decoded += n;
+            }
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < nanos);
+        if(checksum == 42) //Keeps the JIT from discarding the decoded values.
+            System.out.print("");
+        return new long[] {decoded, elapsed};
+    }
+}
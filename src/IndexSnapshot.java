@@ -0,0 +1,96 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class IndexSnapshot {
+
+    /*A snapshot is everything a built index needs to serve queries, written to one file so that a restart can skip reading and stemming the corpus: the
+    stop words, the keyword to query type pairs, the document table with its paragraph offsets, the paragraph text arenas, the term dictionary and the
+    off-heap postings arenas. Loading reads the whole file into a single direct buffer with one bulk read and parses it in place. Both kinds of arena
+    become slices of that buffer, so they are never copied or brought onto the heap.
+
+    Because the paragraph text is part of the snapshot, a loaded index serves results and snippets without the corpus. Document paths are stored
+    absolute so that results still name the right files when the engine is restarted from another directory, and loading warns about any that have
+    since gone missing.
+
+    The file starts with MAGIC and VERSION. Everything apart from the arena contents is written big-endian by a DataOutputStream; strings are an int length
+    followed by that many UTF-8 bytes.
+    */
+    public static final int MAGIC = 0x4D534531; //"MSE1"
+    public static final int VERSION = 4;
+
+    public static long save(InvertedIndex index, File file) throws IOException //Writes a snapshot of the index, which is left on-heap or off-heap as it was. Returns the size of the file.
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            index.writeSnapshot(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        return file.length();
+    }
+
+    public static InvertedIndex load(File file) throws IOException //Reads a snapshot back into a ready to search index.
+    {
+        ByteBuffer snapshot = readFully(file);
+        if(snapshot.remaining() < 8 || snapshot.getInt() != MAGIC)
+            throw new IOException(file + " is not an index snapshot");
+        int version = snapshot.getInt();
+        if(version != VERSION)
+            throw new IOException(file + " is a version " + version + " snapshot, expected version " + VERSION);
+
+        InvertedIndex index = new InvertedIndex();
+        index.readSnapshot(snapshot);
+        return index;
+    }
+
+    private static ByteBuffer readFully(File file) throws IOException //The one bulk read: the whole file into one direct buffer.
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to load into a single buffer");
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while(buffer.hasRemaining())
+            {
+                if(channel.read(buffer) < 0)
+                    throw new EOFException(file + " ended early");
+            }
+            buffer.flip();
+            return buffer;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in)
+    {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
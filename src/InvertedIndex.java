@@ -2,12 +2,19 @@ import java.io.File;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;     
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import static java.lang.Math.log10;
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +39,12 @@ public class InvertedIndex {
      The index of a particular file name is the docID that it is assigned.*/
      public ArrayList<Document> docIDs; 
      private ArrayList<String> stopWords; //Array that will hold all of the stopwords. 
+     /*Maps a query keyword to the corpus category whose documents are relevant to it. The keywords are loaded from the Evaluation directory in the order they
+     are listed, so the first keyword found in a query decides its category.*/
+     private LinkedHashMap<String, String> queryTypes;
+     private HashMap<String, Integer> relevantCounts; //Number of documents in each category, counted once after the index is built.
+     private OffHeapPostings offHeap; //Holds the postings once they have been moved out of the Java heap. Null while they are still in invertedIndex.
+     private OffHeapText paragraphText; //Text of every indexed paragraph, kept off the heap in every mode so that snippets never reopen a document.
      
      public InvertedIndex() //Default class constructor - Creates an empty inverted index.
      {
@@ -39,11 +52,16 @@ public class InvertedIndex {
          invertedIndex = new HashMap<String, LinkedList<Postings>>();
          docIDs = new ArrayList<Document>(); 
          stopWords = new ArrayList<String>();  
+         queryTypes = new LinkedHashMap<String, String>();
+         relevantCounts = new HashMap<String, Integer>();
+         offHeap = null;
+         paragraphText = new OffHeapText();
      }
      
      public void buildIndex(String directory) throws IOException //Function extracts each file from a corpus directory and then uses InvertedIndex member functions to add each document's contents to the inverted index.
     {
         loadStopWords(directory);
+        loadQueryTypes(directory);
         /*Note that this function relies on the directory structure of the corpus not changing from what was provided in the zip. The function requires
         a directory with no files, only sub-directories. Those sub-directories must contain only files in order for this function to work.
         */
@@ -54,15 +72,211 @@ public class InvertedIndex {
                 File[] subDirectory = corpus[i].listFiles(); //Obtain the files for that sub-directory.
                 for(int j = 0; j < subDirectory.length; j++) //Add each file in a sub-directory to the index.
                 {
-                    String parent[] = subDirectory[j].getParent().split("\\\\");
-                    docIDs.add(new Document(subDirectory[j].toString(), parent[parent.length-1])); //Assign a docID  and query type to the document.
+                    String category = subDirectory[j].getParentFile().getName(); //The sub-directory name is the query type of every document inside it.
+                    docIDs.add(new Document(subDirectory[j].toString(), category)); //Assign a docID  and query type to the document.
                     addDoc(id, subDirectory[j]); //Place the documents terms in the arrayList.
                     id++;
                 }
                 
         }
+        countRelevant();
     }
      
+     private void countRelevant() //Count the relevant documents for each category once so precision and recall do not rescan the corpus for every query.
+     {
+        relevantCounts.clear();
+        for(Document d: docIDs)
+        {
+            Integer count = relevantCounts.get(d.getQuery());
+            relevantCounts.put(d.getQuery(), count == null ? 1 : count + 1);
+        }
+     }
+     
+     public void writeSnapshot(DataOutputStream out) throws IOException //Writes everything needed to serve queries without the corpus. Used by IndexSnapshot.save.
+     {
+         //Only the off-heap form of the postings can be written out in bulk. An on-heap index is copied into a temporary store and left as it is.
+         OffHeapPostings store = offHeap != null ? offHeap : copyOffHeap();
+         
+         out.writeInt(stopWords.size());
+         for(String word: stopWords)
+         {
+             IndexSnapshot.writeString(out, word);
+         }
+         
+         out.writeInt(queryTypes.size());
+         for(String keyword: queryTypes.keySet())
+         {
+             IndexSnapshot.writeString(out, keyword);
+             IndexSnapshot.writeString(out, queryTypes.get(keyword));
+         }
+         
+         out.writeInt(docIDs.size());
+         for(Document d: docIDs)
+         {
+             IndexSnapshot.writeString(out, new File(d.getFileName()).getAbsolutePath()); //The corpus path may have been relative to where the engine was started.
+             IndexSnapshot.writeString(out, d.getQuery());
+             out.writeInt(d.getWordCount());
+             out.writeInt(d.getParagraphCount());
+             int[] starts = d.getParagraphStarts();
+             out.writeInt(starts.length);
+             for(int k = 0; k < starts.length; k++)
+             {
+                 out.writeInt(starts[k]);
+             }
+             out.writeLong(d.getTextAddress());
+             int[] textStarts = d.getParagraphTextStarts(); //Same length as starts, including the closing entry.
+             for(int k = 0; k < textStarts.length; k++)
+             {
+                 out.writeInt(textStarts[k]);
+             }
+         }
+         
+         paragraphText.write(out);
+         store.write(out);
+     }
+     
+     public void readSnapshot(ByteBuffer in) //Fills an empty index from what writeSnapshot wrote. Used by IndexSnapshot.load.
+     {
+         int words = in.getInt();
+         for(int i = 0; i < words; i++)
+         {
+             stopWords.add(IndexSnapshot.readString(in));
+         }
+         
+         int types = in.getInt();
+         for(int i = 0; i < types; i++)
+         {
+             String keyword = IndexSnapshot.readString(in);
+             queryTypes.put(keyword, IndexSnapshot.readString(in));
+         }
+         
+         int docs = in.getInt();
+         int missing = 0;
+         for(int i = 0; i < docs; i++)
+         {
+             Document d = new Document(IndexSnapshot.readString(in), IndexSnapshot.readString(in));
+             if(!new File(d.getFileName()).exists())
+             {
+                 missing++;
+             }
+             int wordCount = in.getInt();
+             d.setStats(wordCount, in.getInt());
+             int[] starts = new int[in.getInt()];
+             for(int k = 0; k < starts.length; k++)
+             {
+                 starts[k] = in.getInt();
+             }
+             long textAddress = in.getLong();
+             int[] textStarts = new int[starts.length];
+             for(int k = 0; k < textStarts.length; k++)
+             {
+                 textStarts[k] = in.getInt();
+             }
+             d.setParagraphs(starts, textAddress, textStarts);
+             docIDs.add(d);
+         }
+         if(missing > 0) //Results are still served from the snapshot, but they name files that are no longer there.
+         {
+             System.err.println("WARNING: " + missing + " of " + docs + " documents in the snapshot are no longer at their recorded paths.");
+         }
+         countRelevant();
+         
+         paragraphText = OffHeapText.read(in);
+         offHeap = OffHeapPostings.read(in);
+     }
+     
+     public void moveOffHeap() //Function copies every postings list into off-heap arenas and releases the on-heap lists. Call once, after buildIndex.
+     {
+         if(offHeap != null)
+         {
+             return;
+         }
+         offHeap = copyOffHeap();
+         invertedIndex = new HashMap<String, LinkedList<Postings>>(); //Drop the on-heap copy so it can be collected.
+     }
+     
+     private OffHeapPostings copyOffHeap() //Function copies every on-heap postings list into a new off-heap store, leaving the on-heap lists in place.
+     {
+         OffHeapPostings store = new OffHeapPostings();
+         for(String term: invertedIndex.keySet())
+         {
+             LinkedList<Postings> list = invertedIndex.get(term);
+             int total = 0;
+             for(Postings p: list)
+             {
+                 total += p.getCount();
+             }
+             
+             int[] docs = new int[list.size()];
+             int[] counts = new int[list.size()];
+             int[] words = new int[total];
+             int d = 0;
+             int pos = 0;
+             Iterator<Postings> it = list.descendingIterator(); //Postings were added to the front of the list, so walking it backwards gives increasing docIDs.
+             while(it.hasNext())
+             {
+                 Postings p = it.next();
+                 docs[d] = p.getDocId();
+                 counts[d] = p.getCount();
+                 for(int k = 0; k < p.getCount(); k++)
+                 {
+                     words[pos] = p.getWord().get(k);
+                     pos++;
+                 }
+                 d++;
+             }
+             store.add(term, docs, counts, words);
+         }
+         return store;
+     }
+     
+     public boolean isOffHeap()
+     {
+         return offHeap != null;
+     }
+     
+     public String describeOffHeap() //Size and codec summary of the off-heap postings, or an empty string while they are still on the heap.
+     {
+         return offHeap == null ? "" : offHeap.describe();
+     }
+     
+     private boolean containsTerm(String term)
+     {
+         return offHeap != null ? offHeap.contains(term) : invertedIndex.containsKey(term);
+     }
+     
+     private PostingsCursor postings(String term) //Returns a cursor over the term's postings from whichever store holds them, or null if the term was never seen.
+     {
+         if(offHeap != null)
+         {
+             return offHeap.cursor(term);
+         }
+         LinkedList<Postings> list = invertedIndex.get(term);
+         return list == null ? null : new HeapCursor(list);
+     }
+     
+     public int[] search(String query) //Function returns the docIDs of the results for a query in ranked order without writing them out.
+     {
+         ArrayList<Score> finalScores = rankResults(processQuery(query));
+         int[] ranked = new int[finalScores.size()];
+         for(int i = 0; i < ranked.length; i++)
+         {
+             ranked[i] = finalScores.get(i).getDocID();
+         }
+         return ranked;
+     }
+     
+     public String getCategory(int docID) //Returns the query type (corpus sub-directory) that a document belongs to.
+     {
+         return docIDs.get(docID).getQuery();
+     }
+     
+     public int getRelevantCount(String category) //Returns the number of documents in the corpus that belong to a category.
+     {
+         Integer count = relevantCounts.get(category);
+         return count == null ? 0 : count;
+     }
+     
      public void getResults(String query, BufferedWriter out) throws IOException
      {
         try
@@ -70,28 +284,17 @@ public class InvertedIndex {
         
         ArrayList<String> terms = new ArrayList<String>();
         terms = processQuery(query); //List of significant terms from the query.
-         ArrayList<Score> scores = scoreQuery(terms); //Process the query and obtain the scores for each document.
+        ArrayList<Score> finalScores = rankResults(terms);
         
-           /*Since many of the corus documents from different queries are based off of similar content (i.e. football and hockey), taking only the top
-             n (where n = 20) documents may result in not returning some results that are still highly similar to the query. We must balance this with the notion
-             that scores are generated for any value that contains even a single instance of any keyword. To achieve some sort of balance, we can include documents
-             that are within a certain score distance from the 20th ranked document. This may not be the best approach for every query, but considering the similar
-             content found across the corpus it is a worthy trade off.*/
-           
-        double threshold = scores.get(19).getScore() * 0.90; 
-        
-        ArrayList<Score> finalScores = new ArrayList<Score>();
-        
-        for(int h = 0; h < scores.size(); h++) //Remove scores that are below the threshold.
+        //Open each term's postings once; the cursors are moved to every result's document in turn when its snippet is built.
+        PostingsCursor[] cursors = new PostingsCursor[terms.size()];
+        for(int t = 0; t < terms.size(); t++)
         {
-            finalScores.add(scores.get(h));
-            if(scores.get(h).getScore() < threshold) //Since the list is sorted, once we find a score lower than the threshold, all subsequent scores will be beneath it as well.
-            {
-                break;
-            }  
+            cursors[t] = postings(terms.get(t));
         }
+        PostingsCursor[] onDocument = new PostingsCursor[terms.size()];
+        PassageSelector selector = new PassageSelector(); //Reused for every result so its scratch space is only allocated once per query.
         
-         
             out.append("QUERY: " + query);
             out.newLine();
              for (Score score: finalScores) //For each document that was scored...
@@ -105,7 +308,7 @@ public class InvertedIndex {
                  out.append("APPROXIMATE WORD COUNT: " + docIDs.get(score.getDocID()).getWordCount());
                  out.newLine();
                  //Print out snippet from document.
-                 addSnippet(score, terms, out);
+                 addSnippet(score, cursors, onDocument, selector, out);
              }
              
              calculatePrecisionRecall(finalScores, terms,out);
@@ -117,51 +320,48 @@ public class InvertedIndex {
         }
      }
      
+     private ArrayList<Score> rankResults(ArrayList<String> terms) //Function scores the query terms and keeps only the results that fall within the score threshold.
+     {
+         ArrayList<Score> scores = scoreQuery(terms); //Process the query and obtain the scores for each document.
+         ArrayList<Score> finalScores = new ArrayList<Score>();
+         if(scores.isEmpty()) //None of the query terms appear in the corpus.
+         {
+             return finalScores;
+         }
+         
+           /*Since many of the corus documents from different queries are based off of similar content (i.e. football and hockey), taking only the top
+             n (where n = 20) documents may result in not returning some results that are still highly similar to the query. We must balance this with the notion
+             that scores are generated for any value that contains even a single instance of any keyword. To achieve some sort of balance, we can include documents
+             that are within a certain score distance from the 20th ranked document. This may not be the best approach for every query, but considering the similar
+             content found across the corpus it is a worthy trade off.*/
+           
+        double threshold = scores.get(Math.min(19, scores.size()-1)).getScore() * 0.90; 
+        
+        for(int h = 0; h < scores.size(); h++) //Remove scores that are below the threshold.
+        {
+            finalScores.add(scores.get(h));
+            if(scores.get(h).getScore() < threshold) //Since the list is sorted, once we find a score lower than the threshold, all subsequent scores will be beneath it as well.
+            {
+                break;
+            }  
+        }
+        return finalScores;
+     }
+     
      private void calculatePrecisionRecall(ArrayList<Score> scores, ArrayList<String> terms, BufferedWriter out) throws IOException
      {
          //Search the keywords of the query to determine which documents are considered relevant.
          String queryType = "";
-         if(terms.contains("lidstrom"))
+         for(String keyword: queryTypes.keySet())
          {
-             queryType = "NikLidstrom";
-         }
-         else if(terms.contains("sec"))
-         {
-           queryType = "GeorgiaTech";          
-         }
-         else if(terms.contains("heisman"))
-         {
-             queryType = "Heisman";
-         }
-         else if(terms.contains("quebec"))
-         {
-             queryType = "QuebecNordiques";
-         }
-         else if(terms.contains("scout"))
-         {
-             queryType = "KCScouts";
-         }
-         else if(terms.contains("nhl"))
-         {
-             queryType = "NHL";
-         }
-         else if(terms.contains("nfl"))
-         {
-             queryType = "NFL";
-         }
-         else if(terms.contains("fb"))
-         {
-             queryType = "FBS";
-         }
-         else if(terms.contains("stanford"))
-         {
-             queryType="Stanford";
-         }
-         else if(terms.contains("iron"))
-         {
-             queryType = "IronBowl";
+             if(terms.contains(keyword))
+             {
+                 queryType = queryTypes.get(keyword);
+                 break;
+             }
          }
-         else //Indicate that a query will not have precision and recall calculated if it cannot be determined which documents in the corpus are relevant.
+         
+         if(queryType.equals("")) //Indicate that a query will not have precision and recall calculated if it cannot be determined which documents in the corpus are relevant.
          {
              out.append("The provided query does not have underlying document stats collected.");
              out.newLine();
@@ -176,15 +376,10 @@ public class InvertedIndex {
                    truePositives++;
            }
            
-           int totalRelevant = 0;
-           for(Document d: docIDs)
-           {
-               if(d.getQuery().equals(queryType)) //Count the number of documents contained in the corpus that are matches to this query.
-                   totalRelevant++;
-           }
-          //Calculate preciision and recall.
-           double precision = (double)truePositives / (double) scores.size();
-           double recall = (double) truePositives / (double) totalRelevant;
+           int totalRelevant = getRelevantCount(queryType); //Number of documents contained in the corpus that are matches to this query.
+          //Calculate preciision and recall. A query with no results (or a type with no documents) scores 0% rather than dividing by zero.
+           double precision = scores.isEmpty() ? 0.0 : (double)truePositives / (double) scores.size();
+           double recall = totalRelevant == 0 ? 0.0 : (double) truePositives / (double) totalRelevant;
            
            out.append("PRECISION: " + String.format("%.2f",precision*100) + "%");
            out.newLine();
@@ -200,158 +395,76 @@ public class InvertedIndex {
              out.newLine();
          }
      }
-     private void addSnippet(Score s, ArrayList<String> queryTerms, BufferedWriter out)
+     private void addSnippet(Score s, PostingsCursor[] cursors, PostingsCursor[] onDocument, PassageSelector selector, BufferedWriter out)
      {
-         ArrayList<Postings>sigPosts = new ArrayList<Postings>();
-          for (String term : queryTerms)
-         {
-             for(int i=0; i < invertedIndex.get(term).size(); i++)
-             {
-                 if(invertedIndex.get(term).get(i).getDocId() == s.getDocID())
-                 {
-                     sigPosts.add(invertedIndex.get(term).get(i)); //Obtain all relevant postings for the document in question.
-                     break;
-                 }
-                    
-             }
-         }
-         
-        //Attempt to locate paragraphs where the most relevant terms appear.  
-        ArrayList<Integer> paragraphs = new ArrayList<Integer>();
-        
-        for(int j=0; j < sigPosts.size(); j++)
-        {
-            for(int k=0; k < sigPosts.get(j).getPara().size(); k++)
-            {
-                paragraphs.add(sigPosts.get(j).getPara().get(k));
-            }
-            
-        }
-        
-        //Obtain the paragraph with the most relevant terms by sorting the ArrayList and finding the most abundant paragraph.
-        Collections.sort(paragraphs);
-        
-        int [] otherRelevant = new int [docIDs.get(s.getDocID()).getParagraphCount()]; //Array that will hold any paragraph that has the same number of keywords as the paragraph with the greatest number of keywords.
-        
-        int maxCount = 1;
-        int currentBest = paragraphs.get(0);
-        int currentCount = 1;
-        
-        //Traverse the ArrayList once to determine which single paragraph contains the most keywords.
-        for(int m = 1; m < paragraphs.size(); m++)
-        {
-            if(paragraphs.get(m) == paragraphs.get(m-1))
-            {
-                currentCount++;
-            }
-            else
-            {
-                if(currentCount > maxCount)
-                {
-                    maxCount = currentCount;
-                    currentBest = paragraphs.get(m-1);
-                }
-                else
-                {
-                    if (currentCount==maxCount) //Catches the case where a paragraph has the same keyword count as the most relevant paragraph.
-                    {
-                        otherRelevant[paragraphs.get(m-1)] = currentCount;
-                    }
-                }
-                currentCount=1;
-            }
-        }
-        
-        if(currentCount>maxCount)
-        {
-            maxCount = currentCount;
-            currentBest =  paragraphs.get(paragraphs.size()-1);
-        }
-        else
-        {
-            if(currentCount==maxCount) //Store it in the highly relevant array so it can be returned.
-                {
-                    otherRelevant[paragraphs.get(paragraphs.size()-1)-1]= currentCount;
-                }
-        }
-        
-        if(otherRelevant.length > currentBest && otherRelevant[currentBest] != 0) //Alows us to remove the instance where paragraph #1 is featured in the snippet but was added to the other relevant paragraphs.
-        {
-            otherRelevant[currentBest] = 0;
-        }
-        
-        //Find all words that appear in the paragraph with the most relevant terms.
-        ArrayList<Integer> wordPos = new ArrayList<Integer>();
-    
-         for(int j=0; j < sigPosts.size(); j++)
+         /*The passage is chosen from the word positions alone (see PassageSelector), and the document's paragraph offset table turns those absolute positions
+         into a paragraph and a place within it. The paragraph's text was stored off-heap when the document was indexed, and only the window of words that
+         is shown is decoded from it, so building a snippet never reopens the document or splits the whole paragraph.*/
+         Document doc = docIDs.get(s.getDocID());
+         for(int t = 0; t < cursors.length; t++)
          {
-                for(int k=0; k < sigPosts.get(j).getPara().size(); k++)
-                {
-                    if(sigPosts.get(j).getPara().get(k)==currentBest);
-                        wordPos.add(sigPosts.get(j).getLine().get(k));
-                }
-
+             onDocument[t] = cursors[t] != null && cursors[t].seek(s.getDocID()) ? cursors[t] : null; //Terms missing from this document take no part.
          }
-         Collections.sort(wordPos); //Sort the words so we can obtain the range between the first relevant term and the last in the pargraph.
+         selector.select(onDocument, onDocument.length, doc.getParagraphStarts());
          
           try{
-             FileInputStream fileIn = new FileInputStream(docIDs.get(s.getDocID()).getFileName());
-             XWPFDocument snippet = new XWPFDocument(fileIn);
-             List<XWPFParagraph> currentPar = snippet.getParagraphs();
-             
-             String words[] = currentPar.get(currentBest-1).getText().split(" ");
              out.write("SNIPPET: ");
-             if(words.length <= 50) //If the entire paragraph is less than 50 words, simply print the paragraph as a preview.
+             if(!selector.found())
              {
-                out.append(currentPar.get(currentBest-1).getText() + " (PARAGRAPH #" + currentBest+")");
-                out.newLine();
+                 out.append("(no query terms found in the document)");
+                 out.newLine();
              }
-             else //The length of the paragraph exceeds 50 words, we must decide where to stop printing the paragraph.
+             else
              {
-                 int range = wordPos.get(wordPos.size()-1) - wordPos.get(0); //Number of words between the first and last relevant terms.
-                 if(range >= 50) //Print from the first relevant word and then cite the paragraph so the user can find the rest.
+                 int para = selector.getParagraph();
+                 int first = doc.getParagraphStart(para); //Absolute position of the paragraph's first word.
+                 
+                 //Show the whole paragraph if it is short enough, otherwise WINDOW words starting at the selected window, pulled back if that would run off the end.
+                 int length = doc.getParagraphStart(para + 1) - first;
+                 int from = 0;
+                 if(length > PassageSelector.WINDOW)
                  {
-                     for(int i = wordPos.get(0)-1; i < 50; i++)
-                     {
-                         out.write(words[i] + " ");
-                     }
-                     out.append("... (PARAGRAPH #" + currentBest+")");
-                     out.newLine();
+                     from = Math.max(0, Math.min(selector.getStart() - first, length - PassageSelector.WINDOW));
                  }
-                 else //Range is less than fifty, so we can fit every significant term.
+                 int to = Math.min(length, from + PassageSelector.WINDOW);
+                 String window = doc.getParagraphWords(para, from, to); //Words from to to, still separated by single spaces.
+                 
+                 StringBuilder text = new StringBuilder();
+                 if(from > 0)
                  {
-                     
-                     boolean flag = false;
-                     
-                     for(int i = wordPos.get(0)-1; i < 50; i++)
-                     {
-                         out.write(words[i] + " ");
-                         if(i > range && words[i].contains("[/./?!]")) //End of sentence found.
-                         {
-                             out.append(" (PARAGRAPH #" + currentBest+")");
-                             out.newLine();
-                             flag = true;
-                         }
-                     }
-                     
-                     if(!flag) //Check if end of sentence was reached and if not, print the paragraph location.
+                     text.append("... ");
+                 }
+                 int at = 0;
+                 for(int i = from; i < to; i++)
+                 {
+                     int end = window.indexOf(' ', at);
+                     if(end < 0)
                      {
-                         out.append(" (PARAGRAPH #" + currentBest+")");
-                         out.newLine();
+                         end = window.length();
                      }
+                     if(selector.isHit(first + i)) //Highlight the query terms.
+                         text.append("[").append(window, at, end).append("] ");
+                     else
+                         text.append(window, at, end).append(" ");
+                     at = Math.min(window.length(), end + 1);
                  }
-                 
-             }
-             if(otherRelevant.length > 0) //if there were paragrpahs with the same number of relevant terms found as the featured snippet...
-             {
-                 out.write("OTHER HIGHLY RELEVANT PARAGRAPHS: ");
-                 for(int k = 0; k <otherRelevant.length; k++)
+                 if(to < length)
                  {
-                     if(otherRelevant[k] ==maxCount)
-                        out.write(k + "  ");
+                     text.append("... ");
                  }
-                     
+                 out.append(text.toString() + "(PARAGRAPH #" + para + ")");
                  out.newLine();
+                 
+                 int[] others = selector.otherRelevantParagraphs();
+                 if(others.length > 0) //if there were paragraphs with as many relevant terms as the most relevant one...
+                 {
+                     out.write("OTHER HIGHLY RELEVANT PARAGRAPHS: ");
+                     for(int other: others)
+                     {
+                         out.write(other + "  ");
+                     }
+                     out.newLine();
+                 }
              }
              
              out.append("-----------");
@@ -374,14 +487,15 @@ public class InvertedIndex {
          
          for(int i = 0; i < queryTerms.size(); i++) //For every significant query term...
          {
-             if(invertedIndex.containsKey(queryTerms.get(i))) //Check if term was seen in the corpus.
+             PostingsCursor cursor = postings(queryTerms.get(i));
+             if(cursor != null) //Check if term was seen in the corpus.
              {
-                 int postingsSize = invertedIndex.get(queryTerms.get(i)).size();
+                 int postingsSize = cursor.size();
                  
-                 for(int j=0; j < postingsSize; j++) //Read the entire postings list and generate their respective scores.
+                 while(cursor.next()) //Read the entire postings list and generate their respective scores.
                 {
-                     int docID = invertedIndex.get(queryTerms.get(i)).get(j).getDocId();
-                     double score = calculateTfIdf(invertedIndex.get(queryTerms.get(i)).get(j), postingsSize);
+                     int docID = cursor.docId();
+                     double score = calculateTfIdf(docID, cursor.count(), postingsSize);
                      //Check to see if document has been considered in the score.
                      boolean found = false;
                      for(int k =0; k < scores.size(); k++)
@@ -419,7 +533,7 @@ public class InvertedIndex {
            porters.setCurrent(terms[i]); //Feed the significant term into Porter's Stemming algorithm.
            porters.stem(); //Reduce the word to its root form.
            String root = porters.getCurrent();
-           if(!stopWords.contains(terms[i]) && invertedIndex.containsKey(root)) //If the word is not a keyword...
+           if(!stopWords.contains(terms[i]) && containsTerm(root)) //If the word is not a keyword...
            {   
                sigTerms.add(root); //Add the root form of the word to the significant terms array.
            }
@@ -427,10 +541,10 @@ public class InvertedIndex {
        return sigTerms; //Return the Array List containing the significant terms. 
      }
      
-     private double calculateTfIdf(Postings p, int listSize)
+     private double calculateTfIdf(int docID, int termCount, int listSize)
      {
-         double count = p.getCount();
-         double totalWords = docIDs.get(p.getDocId()).getWordCount();
+         double count = termCount;
+         double totalWords = docIDs.get(docID).getWordCount();
          double tf = count/totalWords; //Normalized term frequency.
          
          double docFreq = listSize; //Number of documents that contain the term.
@@ -449,9 +563,14 @@ public class InvertedIndex {
      
      private void addDoc(int idNum, File doc) throws FileNotFoundException //Function will add all words in a document to the inverted index given its docID and its directory location.
      {
-         int paraWordCount=1;
          int wordCount = 1;
          int paraCount = 1;
+         /*Paragraph offset table: starts[p-1] is the absolute position of the first word of paragraph p and textStarts[p-1] is where its text begins in the
+         document's block of off-heap text, so that snippets never have to parse the document again. Together they let a word's paragraph and its place in
+         it be worked out from its absolute position alone, so the postings only need to store that.*/
+         int[] starts = new int[16];
+         int[] textStarts = new int[16];
+         ByteArrayOutputStream text = new ByteArrayOutputStream(); //The document's paragraphs, one after another, until they are copied off-heap.
          PorterStemmer stemmer = new PorterStemmer();//Porter's Stemmer object used to convert a word to its root form.
          try{
              FileInputStream fileIn = new FileInputStream(doc);
@@ -460,9 +579,19 @@ public class InvertedIndex {
              
              for(int i = 0; i < currentPar.size(); i++)
              {
-               String words[] = currentPar.get(i).getText().split(" ");
+               String paragraph = currentPar.get(i).getText();
+               String words[] = paragraph.split(" ");
                if(words.length>0 && !words[0].equals("")){ //Avoid processing paragraphs containing exclusively whitespace. Note that the corpus has been checked to fix all instances where a paragraph begins with the empty string and then contains non-whitespace characters.
                
+               if(paraCount == starts.length) //Leave room for the closing entry added after the last paragraph.
+               {
+                   starts = Arrays.copyOf(starts, paraCount * 2);
+                   textStarts = Arrays.copyOf(textStarts, paraCount * 2);
+               }
+               starts[paraCount-1] = wordCount;
+               textStarts[paraCount-1] = text.size();
+               byte[] bytes = paragraph.getBytes(StandardCharsets.UTF_8);
+               text.write(bytes, 0, bytes.length);
                for(int j = 0; j < words.length; j++)
                {
                    String lower = words[j].toLowerCase(); //Convert all strings to lowercase to avoid capitalized words not matching to lowercase words.
@@ -482,29 +611,27 @@ public class InvertedIndex {
                       
                        if(!invertedIndex.get(rootWord).isEmpty() && invertedIndex.get(rootWord).getFirst().getDocId() ==idNum) //The word was already added, so we can increase the count by one by adding its statistics.
                        {
-                          invertedIndex.get(rootWord).getFirst().addLocation(wordCount, paraWordCount, paraCount); //Add a new entry to the word's postings list.
+                          invertedIndex.get(rootWord).getFirst().addLocation(wordCount); //Add a new entry to the word's postings list.
                        }
                        else //Document has not yet been found in the postings list. Add a postings entry for that document.
                        {
                             ArrayList<Integer> word = new ArrayList<Integer>();
                             word.add(wordCount);
-                            ArrayList<Integer> paraWord = new ArrayList<Integer>();
-                            paraWord.add(paraWordCount);
-                            ArrayList<Integer> paragraph = new ArrayList<Integer>();
-                            paragraph.add(paraCount);
-                            Postings post = new Postings(idNum, word, paraWord, paragraph);
+                            Postings post = new Postings(idNum, word);
                             invertedIndex.get(rootWord).addFirst(post);
                        }
                     }
                    docIDs.get(idNum).setStats(wordCount, paraCount); //Save the statistics gathered for the document.
-                   paraWordCount++;   
                    wordCount++;
                }
-             paraWordCount=1;
              paraCount++;
                } 
          }
             
+             starts[paraCount-1] = wordCount; //Closing entry, one past the last word, so every paragraph's length is the gap to the next entry.
+             textStarts[paraCount-1] = text.size();
+             long textAddress = paragraphText.add(text.toByteArray(), text.size());
+             docIDs.get(idNum).setParagraphs(Arrays.copyOf(starts, paraCount), textAddress, Arrays.copyOf(textStarts, paraCount));
      
              fileIn.close();
         }
@@ -540,22 +667,49 @@ public class InvertedIndex {
          }
          
      }
+     
+     private void loadQueryTypes(String directory) throws IOException //Function reads the keyword to query type pairs used to judge which documents are relevant to a query.
+     {
+         /*Like the stop words, queryTypes.txt is expected in an Evaluation directory that sits beside the Corpus directory. Each line holds a stemmed keyword
+         followed by the name of the corpus sub-directory whose documents are relevant when that keyword appears in a query.*/
+         File types = new File(directory.replace("Corpus","Evaluation"), "queryTypes.txt");
+         if(!types.exists()) //Without the file no query can be judged, so precision and recall are simply not reported.
+         {
+             return;
+         }
+         BufferedReader input = new BufferedReader(new FileReader(types));
+         try
+         {
+             String line = input.readLine();
+             while(line != null)
+             {
+                 String pair[] = line.trim().split("\\s+");
+                 if(pair.length == 2 && !pair[0].startsWith("#"))
+                 {
+                     queryTypes.put(pair[0], pair[1]);
+                 }
+                 line = input.readLine();
+             }
+             input.close();
+         }
+         catch(IOException e)
+         {
+             System.err.println(e.toString());
+             System.exit(1);
+         }
+     }
     
      
      private class Postings {
         
         private int id;
-        ArrayList<Integer> wordNum; //Holds the absolute position of the word (i.e. its position relative to the entire document).
-        ArrayList<Integer> lineNum; //Holds the word number of word given some word given a paragraph.
-        ArrayList<Integer> paraNum; //Stores the paragraph number where the term can be found.
+        ArrayList<Integer> wordNum; //Holds the absolute position of the word (i.e. its position relative to the entire document). The paragraph and the position within it come from the document's paragraph offset table.
         /*Chose to use an ArrayList here since once the keywords are mapped, we will need to quickly check locations which can be done using random lookup
         as opposed to a sequential lookup with linked lists.*/
         
-        public Postings(int docID, ArrayList<Integer> wNum, ArrayList<Integer> lNum, ArrayList<Integer> par) {
+        public Postings(int docID, ArrayList<Integer> wNum) {
             id = docID;
             wordNum = wNum;
-            lineNum = lNum;
-            paraNum = par;
         }
         
         public int getCount() //Function returns the number of locations that a particular word was found in a document. 
@@ -563,46 +717,100 @@ public class InvertedIndex {
             return wordNum.size();
         }
         
-        public ArrayList<Integer> getPara()
-        {
-             return paraNum;       
-        }
-        
          public ArrayList<Integer> getWord()
         {
              return wordNum;       
         }
-         
-         public ArrayList<Integer> getLine()
-        {
-             return lineNum;       
-        }
-         
-        public int[] getLocation(int pos)
-        {
-            int location[] = {wordNum.get(pos), lineNum.get(pos), paraNum.get(pos)};
-            return location;
-        }
         
         public int getDocId()
         {
             return id;
         }
         
-        public void addLocation(int word, int lNum, int pNum) //Function adds a new location to the back of the ArrayList.
+        public void addLocation(int word) //Function adds a new location to the back of the ArrayList.
         {
             wordNum.add(word);
-            lineNum.add(lNum);
-            paraNum.add(pNum);
         }
     }
      
+     private static class HeapCursor implements PostingsCursor { //Reads an on-heap postings list through the same interface as the off-heap store.
+         
+         private LinkedList<Postings> list;
+         private Iterator<Postings> it;
+         private Postings current;
+         
+         public HeapCursor(LinkedList<Postings> l)
+         {
+             list = l;
+             it = list.descendingIterator(); //The newest document is at the front, so read from the back to visit docIDs in increasing order.
+             current = null;
+         }
+         
+         @Override
+         public int size()
+         {
+             return list.size();
+         }
+         
+         @Override
+         public boolean next()
+         {
+             if(!it.hasNext())
+                 return false;
+             current = it.next();
+             return true;
+         }
+         
+         @Override
+         public boolean seek(int docID)
+         {
+             Iterator<Postings> search = list.descendingIterator(); //A linked list has to be walked from the oldest document until the one we want is reached.
+             while(search.hasNext())
+             {
+                 Postings p = search.next();
+                 if(p.getDocId() == docID)
+                 {
+                     current = p;
+                     it = search;
+                     return true;
+                 }
+                 if(p.getDocId() > docID)
+                 {
+                     break;
+                 }
+             }
+             return false;
+         }
+         
+         @Override
+         public int docId()
+         {
+             return current.getDocId();
+         }
+         
+         @Override
+         public int count()
+         {
+             return current.getCount();
+         }
+         
+         @Override
+         public int word(int i)
+         {
+             return current.getWord().get(i);
+         }
+         
+     }
+     
      private class Document{ //Class will hold document statistics associated with each docID.
          
          private int wordCount;
          private int paragraphCount;
          private String fileName;
          private String intendedQuery;
+         private int[] paraStarts; //Paragraph offset table built by addDoc.
+         private long textAddress; //Address of the document's paragraph text in paragraphText.
+         private int[] paraTextStarts; //Byte offset of each paragraph's text within that block, with a closing entry like paraStarts.
          
          public Document(String f, String q) //Parameterized constructor that will allow for generation of a document before inspecting its contents.
          {
@@ -632,6 +840,38 @@ public class InvertedIndex {
              paragraphCount = para;
          }
          
+         public void setParagraphs(int[] starts, long text, int[] textStarts)
+         {
+             paraStarts = starts;
+             textAddress = text;
+             paraTextStarts = textStarts;
+         }
+         
+         public int[] getParagraphStarts() //starts[p-1] is the first word of paragraph p. The last entry is one past the last word of the document.
+         {
+             return paraStarts;
+         }
+         
+         public int getParagraphStart(int para) //Absolute position of the first word of a paragraph, counting paragraphs from 1.
+         {
+             return paraStarts[para-1];
+         }
+         
+         public long getTextAddress()
+         {
+             return textAddress;
+         }
+         
+         public int[] getParagraphTextStarts()
+         {
+             return paraTextStarts;
+         }
+         
+         public String getParagraphWords(int para, int from, int to) //Words from (inclusive) to to (exclusive) of a paragraph, counting paragraphs from 1 and words from 0.
+         {
+             return paragraphText.words(textAddress, paraTextStarts[para-1], paraTextStarts[para], from, to);
+         }
+         
      }
      
      private class Score implements Comparable<Score>
@@ -0,0 +1,175 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+public class LoadTest {
+
+    /*A concurrent load test that keeps several threads searching the index for a fixed amount of time. Every query's latency is recorded so that the
+    median and tail (p99) can be reported, and the collection time reported by the JVM's garbage collectors is sampled before and after the run to show how
+    much of it was spent in GC. Running it once with the postings on the heap and once with them off-heap shows what moving them buys.
+
+    Total GC time says little about the tail, so every collection that ends during a run is also caught through the collectors' notifications and its
+    duration kept, giving the p99 and longest pause to set beside the query p99. Concurrent cycles, which run alongside the searching threads instead of
+    stopping them, are left out of the pauses.
+    */
+    private InvertedIndex index;
+    private List<String> queries;
+
+    public LoadTest(InvertedIndex idx, List<String> q)
+    {
+        index = idx;
+        queries = q;
+    }
+
+    public void run(String label, int threads, long millis, BufferedWriter out) throws IOException //Searches from every thread until the time is up and writes a one line summary.
+    {
+        if(queries.isEmpty()) //Every thread picks its next query modulo the number of queries, so there must be at least one.
+            throw new IOException("The load test has no queries to run");
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final long[][] latencies = new long[threads][];
+        final int[] completed = new int[threads];
+        final AtomicInteger nextQuery = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+
+        final ArrayList<Long> pauses = new ArrayList<Long>(); //Milliseconds of each collection that ended during the run.
+        NotificationListener listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback)
+            {
+                if(!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                    return;
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                if(info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) //Not a pause.
+                    return;
+                synchronized(pauses)
+                {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }
+        };
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            if(gc instanceof NotificationEmitter)
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long start = System.nanoTime();
+
+        for(int t = 0; t < threads; t++)
+        {
+            final int worker = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    long[] samples = new long[1024];
+                    int n = 0;
+                    while(System.nanoTime() < deadline)
+                    {
+                        String query = queries.get(Math.floorMod(nextQuery.getAndIncrement(), queries.size()));
+                        long queryStart = System.nanoTime();
+                        index.search(query);
+                        if(n == samples.length)
+                            samples = Arrays.copyOf(samples, n * 2);
+                        samples[n++] = System.nanoTime() - queryStart;
+                    }
+                    latencies[worker] = samples;
+                    completed[worker] = n;
+                }
+            });
+            workers[t].start();
+        }
+        for(Thread worker: workers)
+        {
+            try
+            {
+                worker.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long gcCollections = gcCount() - gcCountBefore;
+        long gcMillis = gcTime() - gcTimeBefore;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            if(gc instanceof NotificationEmitter)
+            {
+                try
+                {
+                    ((NotificationEmitter) gc).removeNotificationListener(listener);
+                }
+                catch(ListenerNotFoundException e)
+                {
+                    //Never added to this collector.
+                }
+            }
+        }
+        long[] pause;
+        synchronized(pauses)
+        {
+            pause = new long[pauses.size()];
+            for(int i = 0; i < pause.length; i++)
+                pause[i] = pauses.get(i);
+        }
+        Arrays.sort(pause);
+
+        int total = 0;
+        for(int n: completed)
+            total += n;
+        long[] all = new long[total];
+        int filled = 0;
+        for(int t = 0; t < threads; t++)
+        {
+            System.arraycopy(latencies[t], 0, all, filled, completed[t]);
+            filled += completed[t];
+        }
+        Arrays.sort(all);
+
+        out.append(String.format("%-10s QUERIES: %d  QPS: %.1f  P50: %.3f ms  P99: %.3f ms  MAX: %.3f ms  GC PAUSE P99: %d ms  MAX: %d ms  GC: %d collections, %d ms",
+                label, total, total / (elapsed / 1e9), percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, total == 0 ? 0.0 : all[total - 1] / 1e6,
+                percentile(pause, 0.99), pause.length == 0 ? 0 : pause[pause.length - 1], gcCollections, gcMillis));
+        out.newLine();
+        out.flush();
+    }
+
+    public static long percentile(long[] sorted, double p) //Nearest-rank percentile of an array that is already sorted.
+    {
+        if(sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcTime() //Milliseconds the collectors report spending in collections since the JVM started.
+    {
+        long time = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, gc.getCollectionTime());
+        return time;
+    }
+}
@@ -0,0 +1,469 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class OffHeapPostings {
+
+    /*Once the index is built, the postings can be moved out of the Java heap into direct ByteBuffers (arenas). The garbage collector never scans or copies
+    this memory, so a large corpus no longer lengthens GC pauses. The term dictionary keeps only the address of each term's block, packed into a long as
+    (arena number << 32 | byte offset). A block never spans two arenas, and a block larger than ARENA_SIZE is given an arena of its own.
+
+    A term's documents and its word positions are each cut into runs of BLOCK_SIZE values, so that a cursor only ever decodes one run at a time into
+    buffers of its own. Each term's block is laid out as
+        df | total | run count | words offset | skip table | document runs | word skip table | word runs
+    total is the number of word positions and offsets are relative to the start of the block. The skip table has one entry per document run, holding the
+    run's first docID, its offset and the index of its first word position, so a seek binary-searches the skip table in place and decodes a single run.
+    A document run is its docIDs less the run's first docID, then the running totals of its counts; the word skip table holds the offset of each word run.
+    Every stream begins with the id of the codec chosen for it (see PostingsCodecs), picked separately for each stream as whichever encodes it smallest.
+
+    Word numbers only increase within a document, so each document's words are offset by the last stored word of the document before it when that word is
+    in the same run. That keeps every run sorted and its gaps small, and a word can be recovered from its own run alone.
+
+    An arena's position marks how much of it is used. Arenas loaded from a snapshot are slices of the snapshot's buffer, already full.
+
+    The dictionary gives every term an id in the order it was added: terms[id] is the term and addresses[id] its block's address, so an address is a plain
+    long rather than a boxed Long in a HashMap entry. Terms are found through slots, an open-addressing table of id + 1 (0 is an empty slot) that is kept
+    at most three quarters full.
+    */
+    private static final int ARENA_SIZE = 16 * 1024 * 1024;
+    private static final int BLOCK_SIZE = PostingsCodecs.BLOCK_SIZE; //Values per run, the same as a PFor block so a run is never split across two.
+    private static final int HEADER_SIZE = 16;
+    private static final int SKIP_SIZE = 12; //Bytes per skip table entry.
+
+    private String[] terms; //Term with each id.
+    private long[] addresses; //Packed address of each term's postings block, by term id.
+    private int termCount;
+    private int[] slots; //Hash table of term id + 1, probed linearly.
+    private ArrayList<ByteBuffer> arenas;
+    private ByteBuffer current; //Arena that new blocks are appended to.
+    private long bytes; //Total bytes of postings written.
+    private long postings; //Total number of (term, document) pairs written.
+    private int[] codecUsage; //Number of streams written with each codec, indexed by codec id.
+    private ByteOrder order; //Byte order of the ints in the arenas.
+
+    public OffHeapPostings()
+    {
+        terms = new String[16];
+        addresses = new long[16];
+        termCount = 0;
+        slots = new int[32];
+        arenas = new ArrayList<ByteBuffer>();
+        current = null;
+        codecUsage = new int[PostingsCodecs.all().length];
+        order = ByteOrder.nativeOrder();
+    }
+
+    public void add(String term, int[] docIds, int[] counts, int[] words) //Encodes one term's postings into an arena. Positions are given for all documents, one after another.
+    {
+        int df = docIds.length;
+        int total = words.length;
+        int docRuns = runs(df);
+        int wordRuns = runs(total);
+        int[] chained = chain(words, counts);
+
+        int[][] docValues = new int[docRuns][];
+        int[][] endValues = new int[docRuns][];
+        int[] firstWords = new int[docRuns];
+        PostingsCodec[] docCodecs = new PostingsCodec[docRuns];
+        PostingsCodec[] endCodecs = new PostingsCodec[docRuns];
+        int[] docSizes = new int[docRuns];
+        int position = 0;
+        for(int r = 0; r < docRuns; r++)
+        {
+            int from = r * BLOCK_SIZE;
+            int len = Math.min(BLOCK_SIZE, df - from);
+            docValues[r] = new int[len];
+            endValues[r] = new int[len];
+            firstWords[r] = position;
+            int sum = 0;
+            for(int i = 0; i < len; i++)
+            {
+                docValues[r][i] = docIds[from + i] - docIds[from];
+                sum += counts[from + i];
+                endValues[r][i] = sum;
+            }
+            position += sum;
+            docCodecs[r] = PostingsCodecs.choose(docValues[r], len, true);
+            endCodecs[r] = PostingsCodecs.choose(endValues[r], len, true);
+            docSizes[r] = 2 + docCodecs[r].encodedSize(docValues[r], len, true) + endCodecs[r].encodedSize(endValues[r], len, true);
+        }
+
+        int[][] wordValues = new int[wordRuns][];
+        PostingsCodec[] wordCodecs = new PostingsCodec[wordRuns];
+        int[] wordSizes = new int[wordRuns];
+        for(int r = 0; r < wordRuns; r++)
+        {
+            int from = r * BLOCK_SIZE;
+            wordValues[r] = Arrays.copyOfRange(chained, from, Math.min(total, from + BLOCK_SIZE));
+            wordCodecs[r] = PostingsCodecs.choose(wordValues[r], wordValues[r].length, true);
+            wordSizes[r] = 1 + wordCodecs[r].encodedSize(wordValues[r], wordValues[r].length, true);
+        }
+
+        int wordsAt = HEADER_SIZE + SKIP_SIZE * docRuns;
+        for(int size: docSizes)
+            wordsAt += size;
+        int size = wordsAt + 4 * wordRuns;
+        for(int wordSize: wordSizes)
+            size += wordSize;
+
+        if(current == null || current.remaining() < size) //Start a new arena when the block will not fit in the current one.
+        {
+            current = ByteBuffer.allocateDirect(Math.max(ARENA_SIZE, size)).order(order);
+            arenas.add(current);
+        }
+        int offset = current.position();
+        current.putInt(df);
+        current.putInt(total);
+        current.putInt(docRuns);
+        current.putInt(wordsAt);
+        int at = HEADER_SIZE + SKIP_SIZE * docRuns;
+        for(int r = 0; r < docRuns; r++)
+        {
+            current.putInt(docIds[r * BLOCK_SIZE]);
+            current.putInt(at);
+            current.putInt(firstWords[r]);
+            at += docSizes[r];
+        }
+        for(int r = 0; r < docRuns; r++)
+        {
+            write(docCodecs[r], docValues[r], docValues[r].length, true);
+            write(endCodecs[r], endValues[r], endValues[r].length, true);
+        }
+        at = wordsAt + 4 * wordRuns;
+        for(int r = 0; r < wordRuns; r++)
+        {
+            current.putInt(at);
+            at += wordSizes[r];
+        }
+        for(int r = 0; r < wordRuns; r++)
+            write(wordCodecs[r], wordValues[r], wordValues[r].length, true);
+
+        put(term, ((long) (arenas.size() - 1) << 32) | offset);
+        bytes += size;
+        postings += df;
+    }
+
+    private void write(PostingsCodec codec, int[] values, int n, boolean sorted)
+    {
+        current.put((byte) codec.id());
+        codec.encode(values, n, sorted, current);
+        codecUsage[codec.id()]++;
+    }
+
+    private static int runs(int n) //Number of BLOCK_SIZE runs needed for n values.
+    {
+        return (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    public static int[] chain(int[] words, int[] counts) //Offsets each document's words by the last stored word of the document before it, if that word is in the same run, so no run ever decreases.
+    {
+        int[] chained = new int[words.length];
+        int start = 0;
+        for(int count: counts)
+        {
+            for(int k = start; k < start + count; k++)
+            {
+                int runStart = k - k % BLOCK_SIZE;
+                chained[k] = words[k] + (start > runStart ? chained[start - 1] : 0);
+            }
+            start += count;
+        }
+        return chained;
+    }
+
+    private int find(String term) //Id of a term, or -1 if it is not in the dictionary.
+    {
+        int mask = slots.length - 1;
+        for(int slot = hash(term) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(terms[slots[slot] - 1].equals(term))
+                return slots[slot] - 1;
+        }
+        return -1;
+    }
+
+    private void put(String term, long address) //Gives a new term the next id, or moves an existing term to a new block.
+    {
+        int id = find(term);
+        if(id >= 0)
+        {
+            addresses[id] = address;
+            return;
+        }
+        if(termCount == terms.length)
+        {
+            terms = Arrays.copyOf(terms, termCount * 2);
+            addresses = Arrays.copyOf(addresses, termCount * 2);
+        }
+        terms[termCount] = term;
+        addresses[termCount] = address;
+        termCount++;
+        if(termCount * 4 > slots.length * 3) //Too full: double the table and place every id again, the new one included.
+        {
+            slots = new int[slots.length * 2];
+            for(int i = 0; i < termCount; i++)
+                insert(i);
+        }
+        else
+            insert(termCount - 1);
+    }
+
+    private void insert(int id) //Places an id in the first free slot for its term.
+    {
+        int mask = slots.length - 1;
+        int slot = hash(terms[id]) & mask;
+        while(slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = id + 1;
+    }
+
+    private static int hash(String term) //Spreads the high bits of the hash code into the low ones the mask keeps.
+    {
+        int h = term.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    public boolean contains(String term)
+    {
+        return find(term) >= 0;
+    }
+
+    public int termCount()
+    {
+        return termCount;
+    }
+
+    public long sizeInBytes()
+    {
+        return bytes;
+    }
+
+    public String describe() //One line summary of the store's size and which codecs it ended up using.
+    {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("TERMS: %d  POSTINGS: %d  BYTES: %d (%.2f per posting)  STREAMS:", termCount, postings, bytes,
+                postings == 0 ? 0.0 : (double) bytes / postings));
+        for(PostingsCodec codec: PostingsCodecs.all())
+            summary.append(" " + codec.name() + "=" + codecUsage[codec.id()]);
+        return summary.toString();
+    }
+
+    public void write(DataOutputStream out) throws IOException //Writes the dictionary and the used part of every arena to a snapshot.
+    {
+        out.writeBoolean(order == ByteOrder.BIG_ENDIAN);
+        out.writeLong(bytes);
+        out.writeLong(postings);
+        out.writeInt(codecUsage.length);
+        for(int usage: codecUsage)
+            out.writeInt(usage);
+
+        out.writeInt(termCount);
+        for(int id = 0; id < termCount; id++)
+        {
+            IndexSnapshot.writeString(out, terms[id]);
+            out.writeLong(addresses[id]);
+        }
+
+        out.writeInt(arenas.size());
+        byte[] chunk = new byte[1 << 16];
+        for(ByteBuffer arena: arenas)
+        {
+            ByteBuffer used = arena.duplicate();
+            used.flip();
+            out.writeInt(used.remaining());
+            while(used.hasRemaining())
+            {
+                int n = Math.min(chunk.length, used.remaining());
+                used.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    public static OffHeapPostings read(ByteBuffer snapshot) //Reads what write() wrote. The arenas are slices of the snapshot buffer, not copies.
+    {
+        OffHeapPostings store = new OffHeapPostings();
+        store.order = snapshot.get() != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        store.bytes = snapshot.getLong();
+        store.postings = snapshot.getLong();
+        int codecs = snapshot.getInt();
+        for(int i = 0; i < codecs; i++)
+            store.codecUsage[i] = snapshot.getInt();
+
+        int terms = snapshot.getInt();
+        for(int i = 0; i < terms; i++)
+        {
+            String term = IndexSnapshot.readString(snapshot);
+            store.put(term, snapshot.getLong());
+        }
+
+        int count = snapshot.getInt();
+        for(int i = 0; i < count; i++)
+        {
+            int length = snapshot.getInt();
+            ByteBuffer arena = snapshot.slice();
+            arena.limit(length);
+            arena.order(store.order);
+            arena.position(length); //Full, so new blocks go into a fresh arena.
+            store.arenas.add(arena);
+            snapshot.position(snapshot.position() + length);
+        }
+        return store;
+    }
+
+    public PostingsCursor cursor(String term) //Returns a cursor positioned before the first document of the term, or null if the term is not in the index.
+    {
+        int id = find(term);
+        if(id < 0)
+            return null;
+        long address = addresses[id];
+        return new Cursor(arenas.get((int) (address >>> 32)), (int) address);
+    }
+
+    private static int read(ByteBuffer arena, int offset, int n, int[] out, int[] scratch) //Decodes a sorted stream written by write(). Returns the bytes read.
+    {
+        PostingsCodec codec = PostingsCodecs.byId(arena.get(offset));
+        return 1 + codec.decode(arena, offset + 1, n, true, out, scratch);
+    }
+
+    private static class Cursor implements PostingsCursor {
+
+        private ByteBuffer arena;
+        private int block; //Byte offset of the term's block.
+        private int df;
+        private int total;
+        private int docRuns;
+        private int wordsAt; //Offset of the word skip table within the block.
+        private int[] docIds; //docIDs of the decoded document run.
+        private int[] ends; //Running totals of the counts of the decoded document run.
+        private int[] words; //Stored (chained) word positions of the decoded word run.
+        private int[] scratch; //Working space for the codecs.
+        private int docRun; //Which document run is decoded, or -1 for none.
+        private int runLength;
+        private int runFirstWord; //Index of the decoded document run's first word position.
+        private int wordRun; //Which word run is decoded, or -1 for none.
+        private int index; //Current document within the list.
+        private int currentDoc;
+        private int positionBase; //Index of the current document's first word position within the whole list.
+        private int currentCount;
+
+        public Cursor(ByteBuffer a, int offset)
+        {
+            arena = a;
+            block = offset;
+            df = arena.getInt(offset);
+            total = arena.getInt(offset + 4);
+            docRuns = arena.getInt(offset + 8);
+            wordsAt = arena.getInt(offset + 12);
+            docIds = new int[BLOCK_SIZE];
+            ends = new int[BLOCK_SIZE];
+            words = new int[BLOCK_SIZE];
+            scratch = new int[BLOCK_SIZE + 1];
+            docRun = -1;
+            wordRun = -1;
+            index = -1;
+            positionBase = 0;
+            currentCount = 0;
+        }
+
+        private void decodeDocRun(int run)
+        {
+            int entry = block + HEADER_SIZE + SKIP_SIZE * run;
+            int first = arena.getInt(entry);
+            int at = block + arena.getInt(entry + 4);
+            runFirstWord = arena.getInt(entry + 8);
+            runLength = Math.min(BLOCK_SIZE, df - run * BLOCK_SIZE);
+            at += read(arena, at, runLength, docIds, scratch);
+            read(arena, at, runLength, ends, scratch);
+            for(int i = 0; i < runLength; i++)
+                docIds[i] += first;
+            docRun = run;
+        }
+
+        private void moveTo(int i) //Makes the i-th document of the list current. Its run must be the decoded one.
+        {
+            int j = i - docRun * BLOCK_SIZE;
+            int start = j == 0 ? 0 : ends[j - 1];
+            index = i;
+            currentDoc = docIds[j];
+            positionBase = runFirstWord + start;
+            currentCount = ends[j] - start;
+        }
+
+        @Override
+        public int size()
+        {
+            return df;
+        }
+
+        @Override
+        public boolean next()
+        {
+            if(index + 1 >= df)
+                return false;
+            int run = (index + 1) / BLOCK_SIZE;
+            if(run != docRun)
+                decodeDocRun(run);
+            moveTo(index + 1);
+            return true;
+        }
+
+        @Override
+        public boolean seek(int docID)
+        {
+            int low = 0;
+            int high = docRuns - 1;
+            int run = -1;
+            while(low <= high) //The last run whose first docID is not past the one wanted, read straight from the skip table.
+            {
+                int mid = (low + high) >>> 1;
+                if(arena.getInt(block + HEADER_SIZE + SKIP_SIZE * mid) <= docID)
+                {
+                    run = mid;
+                    low = mid + 1;
+                }
+                else
+                    high = mid - 1;
+            }
+            if(run < 0)
+                return false;
+            if(run != docRun)
+                decodeDocRun(run);
+            int found = Arrays.binarySearch(docIds, 0, runLength, docID);
+            if(found < 0)
+                return false;
+            moveTo(run * BLOCK_SIZE + found);
+            return true;
+        }
+
+        @Override
+        public int docId()
+        {
+            return currentDoc;
+        }
+
+        @Override
+        public int count()
+        {
+            return currentCount;
+        }
+
+        @Override
+        public int word(int i)
+        {
+            int k = positionBase + i;
+            int run = k / BLOCK_SIZE;
+            if(run != wordRun)
+            {
+                read(arena, block + arena.getInt(block + wordsAt + 4 * run), Math.min(BLOCK_SIZE, total - run * BLOCK_SIZE), words, scratch);
+                wordRun = run;
+            }
+            int first = run * BLOCK_SIZE;
+            int base = positionBase > first ? words[positionBase - 1 - first] : 0; //The document before's last word, if chain() offset this one by it.
+            return words[k - first] - base;
+        }
+    }
+}
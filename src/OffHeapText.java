@@ -0,0 +1,105 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class OffHeapText {
+
+    /*The text of every indexed paragraph, kept as UTF-8 in direct ByteBuffers (arenas) rather than as Strings, so that it adds nothing for the garbage
+    collector to trace. Each document's paragraphs are stored one after another as a single block, addressed like a postings block by a long packed as
+    (arena number << 32 | byte offset); the document's paragraph offset table holds the address and where each paragraph starts within the block.
+
+    Words are the pieces of a paragraph between single spaces, the same split addDoc numbers them by, so a window of words can be found by counting spaces
+    in place and only the window itself is decoded.
+    */
+    private static final int ARENA_SIZE = 4 * 1024 * 1024;
+
+    private ArrayList<ByteBuffer> arenas;
+    private ByteBuffer current; //Arena that new blocks are appended to.
+    private long bytes; //Total bytes of text written.
+
+    public OffHeapText()
+    {
+        arenas = new ArrayList<ByteBuffer>();
+        current = null;
+    }
+
+    public long add(byte[] text, int length) //Copies a document's text into an arena. Returns its address.
+    {
+        if(current == null || current.remaining() < length) //Start a new arena when the block will not fit in the current one.
+        {
+            current = ByteBuffer.allocateDirect(Math.max(ARENA_SIZE, length));
+            arenas.add(current);
+        }
+        int offset = current.position();
+        current.put(text, 0, length);
+        bytes += length;
+        return ((long) (arenas.size() - 1) << 32) | offset;
+    }
+
+    public long sizeInBytes()
+    {
+        return bytes;
+    }
+
+    public String words(long address, int start, int end, int from, int to) //Text of words from (inclusive) to to (exclusive) of the paragraph between bytes start and end of a block.
+    {
+        ByteBuffer arena = arenas.get((int) (address >>> 32));
+        int paragraphEnd = (int) address + end;
+        int first = (int) address + start;
+        if(from > 0)
+            first = Math.min(paragraphEnd, nthSpace(arena, first, paragraphEnd, from) + 1);
+        int last = to > from ? nthSpace(arena, first, paragraphEnd, to - from) : first;
+        byte[] window = new byte[last - first];
+        for(int i = 0; i < window.length; i++)
+            window[i] = arena.get(first + i);
+        return new String(window, StandardCharsets.UTF_8);
+    }
+
+    private static int nthSpace(ByteBuffer arena, int at, int end, int n) //Offset of the n-th space from at, or end if there are fewer.
+    {
+        for(; at < end; at++)
+        {
+            if(arena.get(at) == ' ' && --n == 0)
+                return at;
+        }
+        return end;
+    }
+
+    public void write(DataOutputStream out) throws IOException //Writes the used part of every arena to a snapshot.
+    {
+        out.writeLong(bytes);
+        out.writeInt(arenas.size());
+        byte[] chunk = new byte[1 << 16];
+        for(ByteBuffer arena: arenas)
+        {
+            ByteBuffer used = arena.duplicate();
+            used.flip();
+            out.writeInt(used.remaining());
+            while(used.hasRemaining())
+            {
+                int n = Math.min(chunk.length, used.remaining());
+                used.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    public static OffHeapText read(ByteBuffer snapshot) //Reads what write() wrote. The arenas are slices of the snapshot buffer, not copies.
+    {
+        OffHeapText store = new OffHeapText();
+        store.bytes = snapshot.getLong();
+        int count = snapshot.getInt();
+        for(int i = 0; i < count; i++)
+        {
+            int length = snapshot.getInt();
+            ByteBuffer arena = snapshot.slice();
+            arena.limit(length);
+            arena.position(length); //Full, so new blocks go into a fresh arena.
+            store.arenas.add(arena);
+            snapshot.position(snapshot.position() + length);
+        }
+        return store;
+    }
+}
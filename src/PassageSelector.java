@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+public class PassageSelector {
+
+    /*Picks the passage of a document that a result's snippet is taken from, using nothing but the word positions of the query terms and the document's
+    paragraph offset table. The positions of every query term are already sorted, so they are merged into one sorted list of hits in a single pass. A
+    second pass slides a window of at most WINDOW words over those hits, never letting it cross a paragraph boundary, and keeps the window holding the most
+    distinct query terms (then the most hits, then the earliest). The same pass counts the hits in every paragraph.
+
+    At most MAX_HITS positions are read for each term, so the work per result is bounded however often a term appears. The scratch arrays are kept between
+    calls and only grow, so a selector reused across the results of a query allocates almost nothing. A selector is not thread safe.
+    */
+    public static final int WINDOW = 50; //Words shown in a snippet.
+    public static final int MAX_HITS = 2048; //Positions read per query term.
+
+    private int[] hitWord = new int[64]; //Merged hits: absolute word position, query term index and paragraph number.
+    private int[] hitTerm = new int[64];
+    private int[] hitPara = new int[64];
+    private int hits;
+    private int[] next = new int[8]; //Index of the next unread position of each term during the merge.
+    private int[] inWindow = new int[8]; //Occurrences of each term inside the current window.
+    private int[] paraNumber = new int[16]; //Paragraphs that contain a hit, in order, with the number of hits in each.
+    private int[] paraHits = new int[16];
+    private int paragraphs;
+
+    private int bestPara; //The selected window.
+    private int bestStart;
+    private int bestEnd;
+    private int maxParaHits;
+    private int walk; //How far isHit() has read through the hits.
+
+    public void select(PostingsCursor[] cursors, int terms, int[] paraStart) //Each cursor must be on the document, or null if the term does not appear in it. paraStart[p-1] is the first word of paragraph p and its last entry is one past the last word.
+    {
+        merge(cursors, terms, paraStart);
+
+        walk = 0;
+        bestPara = 0;
+        bestStart = 0;
+        bestEnd = 0;
+        maxParaHits = 0;
+        paragraphs = 0;
+        int bestDistinct = 0;
+        int bestCount = 0;
+        for(int t = 0; t < terms; t++)
+            inWindow[t] = 0;
+
+        int low = 0;
+        int distinct = 0;
+        for(int i = 0; i < hits; i++)
+        {
+            if(paragraphs == 0 || paraNumber[paragraphs - 1] != hitPara[i]) //First hit in a new paragraph.
+            {
+                if(paragraphs == paraNumber.length)
+                {
+                    paraNumber = Arrays.copyOf(paraNumber, paragraphs * 2);
+                    paraHits = Arrays.copyOf(paraHits, paragraphs * 2);
+                }
+                paraNumber[paragraphs] = hitPara[i];
+                paraHits[paragraphs] = 0;
+                paragraphs++;
+            }
+            paraHits[paragraphs - 1]++;
+            maxParaHits = Math.max(maxParaHits, paraHits[paragraphs - 1]);
+
+            while(hitPara[low] != hitPara[i] || hitWord[i] - hitWord[low] >= WINDOW) //Drop hits that left the window or belong to an earlier paragraph.
+            {
+                if(--inWindow[hitTerm[low]] == 0)
+                    distinct--;
+                low++;
+            }
+            if(inWindow[hitTerm[i]]++ == 0)
+                distinct++;
+
+            int count = i - low + 1;
+            if(distinct > bestDistinct || (distinct == bestDistinct && count > bestCount))
+            {
+                bestDistinct = distinct;
+                bestCount = count;
+                bestPara = hitPara[i];
+                bestStart = hitWord[low];
+                bestEnd = hitWord[i];
+            }
+        }
+    }
+
+    private void merge(PostingsCursor[] cursors, int terms, int[] paraStart) //Merges the sorted positions of every term into the hit arrays and tags each hit with its paragraph.
+    {
+        if(next.length < terms)
+        {
+            next = new int[terms];
+            inWindow = new int[terms];
+        }
+        int limit = 0;
+        for(int t = 0; t < terms; t++)
+        {
+            next[t] = 0;
+            if(cursors[t] != null)
+                limit += Math.min(cursors[t].count(), MAX_HITS);
+        }
+        if(hitWord.length < limit)
+        {
+            hitWord = new int[limit];
+            hitTerm = new int[limit];
+            hitPara = new int[limit];
+        }
+
+        hits = 0;
+        int para = 1;
+        while(true)
+        {
+            int term = -1;
+            int word = Integer.MAX_VALUE;
+            for(int t = 0; t < terms; t++) //There are only a handful of query terms, so scanning their heads is cheaper than a heap.
+            {
+                if(cursors[t] != null && next[t] < Math.min(cursors[t].count(), MAX_HITS))
+                {
+                    int candidate = cursors[t].word(next[t]);
+                    if(candidate < word)
+                    {
+                        word = candidate;
+                        term = t;
+                    }
+                }
+            }
+            if(term < 0)
+                break;
+            next[term]++;
+
+            while(para < paraStart.length - 1 && paraStart[para] <= word) //Hits arrive in order, so the paragraph only ever moves forward.
+                para++;
+            hitWord[hits] = word;
+            hitTerm[hits] = term;
+            hitPara[hits] = para;
+            hits++;
+        }
+    }
+
+    public boolean found() //False when none of the terms had a position in the document.
+    {
+        return hits > 0;
+    }
+
+    public int getParagraph() //Paragraph number (starting at 1) of the selected window.
+    {
+        return bestPara;
+    }
+
+    public int getStart() //Absolute word position of the first hit in the selected window.
+    {
+        return bestStart;
+    }
+
+    public int getEnd() //Absolute word position of the last hit in the selected window.
+    {
+        return bestEnd;
+    }
+
+    public boolean isHit(int word) //Whether a word is one of the hits. After each select(), words must be asked about in increasing order.
+    {
+        while(walk < hits && hitWord[walk] < word)
+            walk++;
+        return walk < hits && hitWord[walk] == word;
+    }
+
+    public int[] otherRelevantParagraphs() //Paragraphs, other than the selected one, holding as many hits as the paragraph with the most.
+    {
+        int n = 0;
+        for(int p = 0; p < paragraphs; p++)
+        {
+            if(paraHits[p] == maxParaHits && paraNumber[p] != bestPara)
+                n++;
+        }
+        int[] others = new int[n];
+        n = 0;
+        for(int p = 0; p < paragraphs; p++)
+        {
+            if(paraHits[p] == maxParaHits && paraNumber[p] != bestPara)
+                others[n++] = paraNumber[p];
+        }
+        return others;
+    }
+}
@@ -0,0 +1,21 @@
+import java.nio.ByteBuffer;
+
+/*A codec turns one stream of a postings list (docIDs, counts or positions) into bytes and back. A sorted stream never decreases, which lets a codec store
+the gaps between values or, for Elias-Fano, the values themselves in close to the minimum number of bits. Decoding reads with absolute gets so that any
+number of threads can decode from the same buffer at once. Decoding allocates nothing: any working space a codec needs comes from the scratch array the caller
+passes in and keeps between calls.
+*/
+public interface PostingsCodec {
+
+    public int id(); //Written before every encoded stream so the reader knows which codec to decode it with.
+
+    public String name();
+
+    public boolean supports(boolean sorted); //Whether the codec can encode a stream that is (or is not) sorted.
+
+    public int encodedSize(int[] values, int n, boolean sorted); //Bytes that encode() would write for the first n values.
+
+    public void encode(int[] values, int n, boolean sorted, ByteBuffer out); //Writes the first n values at the buffer's position and advances it.
+
+    public int decode(ByteBuffer in, int offset, int n, boolean sorted, int[] out, int[] scratch); //Reads n values starting at offset into out, using scratch (at least n + 1 ints) as working space. Returns the number of bytes read.
+}
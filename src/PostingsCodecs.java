@@ -0,0 +1,572 @@
+import java.nio.ByteBuffer;
+
+public class PostingsCodecs {
+
+    /*The available postings codecs, indexed by their id. When a list is written off-heap, every codec that supports the stream is asked how many bytes it
+    would need and the smallest one is used, so short lists usually end up variable-byte, long gap lists PFor, and long docID lists Elias-Fano.
+
+    PFor and Elias-Fano pack their values in groups of 32 laid out in lanes: g groups of width b take g * b 32-bit words (the lanes), and value s * lanes + i
+    sits in b-bit slot s, counting from the top, of word i. Decoding a slot is then one loop over consecutive ints with the same shift and mask for every word, which C2
+    compiles to SIMD shifts and masks. The few values that do not fill a whole slot go through the spare low bits of the words and are read by a scalar
+    loop. Widths from 11 to 31 other than 16 leave too many values for that loop, so they, and the last values of a list that do not make up a group,
+    stay back to back. Either way a list takes packedWords() words. Rebuilding a sorted stream from its gaps is a prefix sum, which carries a dependency
+    from each value to the next and so stays scalar; PFor runs it on each block straight after unpacking it, while the block is still in cache.
+    */
+    public static final int BLOCK_SIZE = 128; //Number of values in a PFor block.
+
+    public static final PostingsCodec RAW = new RawCodec();
+    public static final PostingsCodec VARIABLE_BYTE = new VariableByteCodec();
+    public static final PostingsCodec PFOR = new PForCodec();
+    public static final PostingsCodec ELIAS_FANO = new EliasFanoCodec();
+
+    private static final PostingsCodec[] ALL = {RAW, VARIABLE_BYTE, PFOR, ELIAS_FANO}; //Position in the array is the codec's id.
+    private static final PostingsCodec[] PREFERENCE = {PFOR, ELIAS_FANO, VARIABLE_BYTE, RAW}; //On a tie in size, the codec that decodes fastest wins.
+
+    public static PostingsCodec[] all()
+    {
+        return ALL.clone();
+    }
+
+    public static PostingsCodec byId(int id)
+    {
+        return ALL[id];
+    }
+
+    public static PostingsCodec choose(int[] values, int n, boolean sorted) //Returns the codec that encodes the first n values in the fewest bytes.
+    {
+        PostingsCodec best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for(PostingsCodec codec: PREFERENCE)
+        {
+            if(!codec.supports(sorted))
+                continue;
+            int size = codec.encodedSize(values, n, sorted);
+            if(size < bestSize)
+            {
+                best = codec;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    public static int vbyteSize(int value) //Bytes needed to write a non-negative value seven bits at a time.
+    {
+        int size = 1;
+        while((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    public static void writeVByte(int value, ByteBuffer out) //The low seven bits go first; the high bit of a byte is set when more bytes follow.
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVByte(ByteBuffer in, int offset)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = in.get(offset++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    public static int packedWords(int n, int bits) //32-bit words needed to hold n values of the given width, in lanes or back to back alike.
+    {
+        return (int) (((long) n * bits + 31) >>> 5);
+    }
+
+    public static void pack(int[] values, int from, int n, int bits, ByteBuffer out) //Writes the low bits of each value, whole groups of 32 in lanes where the width suits them and the rest back to back.
+    {
+        int grouped = inLanes(bits) ? n & ~31 : 0;
+        if(grouped > 0)
+            packLanes(values, from, grouped, bits, out);
+        packBackToBack(values, from + grouped, n - grouped, bits, out);
+    }
+
+    private static boolean inLanes(int bits) //Widths that leave at most a few values per group for the scalar remainder, where lanes decode faster than back to back.
+    {
+        return (bits > 0 && bits <= 10) || bits == 16 || bits == 32;
+    }
+
+    private static void packLanes(int[] values, int from, int n, int bits, ByteBuffer out) //n is a multiple of 32, which makes n * bits / 32 lanes.
+    {
+        int lanes = (n >>> 5) * bits;
+        int[] lane = new int[lanes];
+        int mask = bits == 32 ? -1 : (1 << bits) - 1;
+        int whole = 32 / bits;
+        int v = from;
+        for(int s = 1; s <= whole; s++) //Value s * lanes + i goes in the s-th slot from the top of lane i.
+        {
+            int shift = 32 - s * bits;
+            for(int i = 0; i < lanes; i++)
+                lane[i] |= (values[v++] & mask) << shift;
+        }
+        int spare = 32 - whole * bits; //Low bits of every lane left over. The remaining values go through them most significant bit first, lane after lane.
+        long held = 0;
+        int heldBits = 0;
+        int t = 0;
+        for(; v < from + n; v++)
+        {
+            held = (held << bits) | (values[v] & mask & 0xFFFFFFFFL);
+            heldBits += bits;
+            while(heldBits >= spare)
+            {
+                heldBits -= spare;
+                lane[t++] |= (int) (held >>> heldBits) & ((1 << spare) - 1);
+            }
+        }
+        for(int word: lane)
+            out.putInt(word);
+    }
+
+    private static void packBackToBack(int[] values, int from, int n, int bits, ByteBuffer out) //Values back to back, least significant bit first.
+    {
+        int words = packedWords(n, bits);
+        long buffer = 0;
+        int filled = 0;
+        int written = 0;
+        long mask = (1L << bits) - 1;
+        for(int i = 0; i < n; i++)
+        {
+            buffer |= (values[from + i] & mask) << filled;
+            filled += bits;
+            if(filled >= 32)
+            {
+                out.putInt((int) buffer);
+                written++;
+                buffer >>>= 32;
+                filled -= 32;
+            }
+        }
+        if(written < words)
+            out.putInt((int) buffer);
+    }
+
+    public static int unpack(ByteBuffer in, int offset, int n, int bits, int[] out, int from, int[] scratch) //Reads values written by pack(). scratch must hold n + 1 ints. Returns the bytes read.
+    {
+        if(bits == 0) //Every value was zero, so nothing was packed.
+        {
+            for(int i = 0; i < n; i++)
+                out[from + i] = 0;
+            return 0;
+        }
+        int grouped = inLanes(bits) ? n & ~31 : 0;
+        int read = grouped > 0 ? unpackLanes(in, offset, grouped, bits, out, from, scratch) : 0;
+        return read + unpackBackToBack(in, offset + read, n - grouped, bits, out, from + grouped, scratch);
+    }
+
+    private static int unpackLanes(ByteBuffer in, int offset, int n, int bits, int[] out, int from, int[] scratch) //Reads what packLanes() wrote.
+    {
+        int lanes = (n >>> 5) * bits;
+        for(int w = 0; w < lanes; w++)
+            scratch[w] = in.getInt(offset + 4 * w);
+        int mask = bits == 32 ? -1 : (1 << bits) - 1;
+        int whole = 32 / bits;
+        int o = from;
+        for(int s = 1; s <= whole; s++) //The same shift and mask for every lane, over consecutive ints: the loop the JIT vectorizes.
+        {
+            int shift = 32 - s * bits;
+            for(int i = 0; i < lanes; i++)
+                out[o + i] = (scratch[i] >>> shift) & mask;
+            o += lanes;
+        }
+        int spare = 32 - whole * bits;
+        long held = 0;
+        int heldBits = 0;
+        for(int t = 0; o < from + n; t++) //The few values kept in the spare low bits, read through a 64-bit accumulator.
+        {
+            held = (held << spare) | (scratch[t] & ((1 << spare) - 1));
+            heldBits += spare;
+            while(heldBits >= bits && o < from + n)
+            {
+                heldBits -= bits;
+                out[o++] = (int) (held >>> heldBits) & mask;
+            }
+        }
+        return 4 * lanes;
+    }
+
+    private static int unpackBackToBack(ByteBuffer in, int offset, int n, int bits, int[] out, int from, int[] scratch) //Reads what packBackToBack() wrote.
+    {
+        int words = packedWords(n, bits);
+        for(int w = 0; w < words; w++)
+            scratch[w] = in.getInt(offset + 4 * w);
+        scratch[words] = 0; //Guard word, so the last value can always read the word after its own.
+
+        long mask = (1L << bits) - 1;
+        int bit = 0;
+        for(int i = 0; i < n; i++)
+        {
+            int w = bit >>> 5;
+            long pair = (scratch[w] & 0xFFFFFFFFL) | ((long) scratch[w + 1] << 32);
+            out[from + i] = (int) ((pair >>> (bit & 31)) & mask);
+            bit += bits;
+        }
+        return 4 * words;
+    }
+
+    private static int prefixSum(int[] values, int from, int n, int base) //Turns gaps back into the values they were taken from, starting from base. Returns the last value.
+    {
+        int sum = base;
+        for(int i = from; i < from + n; i++)
+        {
+            sum += values[i];
+            values[i] = sum;
+        }
+        return sum;
+    }
+
+    private static class RawCodec implements PostingsCodec { //Four bytes per value. Kept as the baseline every other codec is measured against.
+
+        @Override
+        public int id()
+        {
+            return 0;
+        }
+
+        @Override
+        public String name()
+        {
+            return "raw";
+        }
+
+        @Override
+        public boolean supports(boolean sorted)
+        {
+            return true;
+        }
+
+        @Override
+        public int encodedSize(int[] values, int n, boolean sorted)
+        {
+            return 4 * n;
+        }
+
+        @Override
+        public void encode(int[] values, int n, boolean sorted, ByteBuffer out)
+        {
+            for(int i = 0; i < n; i++)
+                out.putInt(values[i]);
+        }
+
+        @Override
+        public int decode(ByteBuffer in, int offset, int n, boolean sorted, int[] out, int[] scratch)
+        {
+            for(int i = 0; i < n; i++)
+                out[i] = in.getInt(offset + 4 * i);
+            return 4 * n;
+        }
+    }
+
+    private static class VariableByteCodec implements PostingsCodec { //Seven bits per byte. Sorted streams are stored as gaps. Cheapest for short lists.
+
+        @Override
+        public int id()
+        {
+            return 1;
+        }
+
+        @Override
+        public String name()
+        {
+            return "vbyte";
+        }
+
+        @Override
+        public boolean supports(boolean sorted)
+        {
+            return true;
+        }
+
+        @Override
+        public int encodedSize(int[] values, int n, boolean sorted)
+        {
+            int size = 0;
+            int previous = 0;
+            for(int i = 0; i < n; i++)
+            {
+                size += vbyteSize(values[i] - previous);
+                if(sorted)
+                    previous = values[i];
+            }
+            return size;
+        }
+
+        @Override
+        public void encode(int[] values, int n, boolean sorted, ByteBuffer out)
+        {
+            int previous = 0;
+            for(int i = 0; i < n; i++)
+            {
+                writeVByte(values[i] - previous, out);
+                if(sorted)
+                    previous = values[i];
+            }
+        }
+
+        @Override
+        public int decode(ByteBuffer in, int offset, int n, boolean sorted, int[] out, int[] scratch)
+        {
+            int start = offset;
+            for(int i = 0; i < n; i++)
+            {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do
+                {
+                    b = in.get(offset++);
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while(b < 0);
+                out[i] = value;
+            }
+            if(sorted)
+                prefixSum(out, 0, n, 0);
+            return offset - start;
+        }
+    }
+
+    private static class PForCodec implements PostingsCodec {
+
+        /*Patched frame of reference. Values (gaps, for a sorted stream) are split into blocks of BLOCK_SIZE. Each block picks the bit width that makes it
+        smallest, packs the low bits of every value at that width, and stores the few values that do not fit as exceptions: the value's index in the block
+        followed by its remaining high bits as a variable-byte number. A block is written as
+            width (1 byte) | exception count (1 byte) | packed words | exceptions
+        so a single large gap does not force the whole block to a wider width.
+        */
+
+        @Override
+        public int id()
+        {
+            return 2;
+        }
+
+        @Override
+        public String name()
+        {
+            return "pfor";
+        }
+
+        @Override
+        public boolean supports(boolean sorted)
+        {
+            return true;
+        }
+
+        @Override
+        public int encodedSize(int[] values, int n, boolean sorted)
+        {
+            int[] block = new int[BLOCK_SIZE];
+            int size = 0;
+            int previous = 0;
+            for(int from = 0; from < n; from += BLOCK_SIZE)
+            {
+                int len = Math.min(BLOCK_SIZE, n - from);
+                previous = fillBlock(values, from, len, sorted, previous, block);
+                size += blockSize(block, len, bestWidth(block, len));
+            }
+            return size;
+        }
+
+        @Override
+        public void encode(int[] values, int n, boolean sorted, ByteBuffer out)
+        {
+            int[] block = new int[BLOCK_SIZE];
+            int previous = 0;
+            for(int from = 0; from < n; from += BLOCK_SIZE)
+            {
+                int len = Math.min(BLOCK_SIZE, n - from);
+                previous = fillBlock(values, from, len, sorted, previous, block);
+                int bits = bestWidth(block, len);
+
+                int exceptions = 0;
+                for(int i = 0; i < len; i++)
+                {
+                    if(bits < 32 && (block[i] >>> bits) != 0)
+                        exceptions++;
+                }
+                out.put((byte) bits);
+                out.put((byte) exceptions);
+                pack(block, 0, len, bits, out);
+                for(int i = 0; i < len && exceptions > 0; i++)
+                {
+                    if(bits < 32 && (block[i] >>> bits) != 0)
+                    {
+                        out.put((byte) i);
+                        writeVByte(block[i] >>> bits, out);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int decode(ByteBuffer in, int offset, int n, boolean sorted, int[] out, int[] scratch)
+        {
+            int start = offset;
+            int previous = 0;
+            for(int from = 0; from < n; from += BLOCK_SIZE)
+            {
+                int len = Math.min(BLOCK_SIZE, n - from);
+                int bits = in.get(offset) & 0xFF;
+                int exceptions = in.get(offset + 1) & 0xFF;
+                offset += 2;
+                offset += unpack(in, offset, len, bits, out, from, scratch);
+                for(int e = 0; e < exceptions; e++) //Patch the high bits back onto the values that did not fit.
+                {
+                    int index = in.get(offset++) & 0xFF;
+                    int high = readVByte(in, offset);
+                    offset += vbyteSize(high);
+                    out[from + index] |= high << bits;
+                }
+                if(sorted) //One block at a time, while it is still in the L1 cache.
+                    previous = prefixSum(out, from, len, previous);
+            }
+            return offset - start;
+        }
+
+        private static int fillBlock(int[] values, int from, int len, boolean sorted, int previous, int[] block) //Copies a block, taking gaps if sorted. Returns the last value copied.
+        {
+            for(int i = 0; i < len; i++)
+            {
+                int value = values[from + i];
+                block[i] = sorted ? value - previous : value;
+                previous = value;
+            }
+            return previous;
+        }
+
+        private static int bestWidth(int[] block, int len)
+        {
+            int best = 32;
+            int bestSize = blockSize(block, len, 32);
+            for(int bits = 0; bits < 32; bits++)
+            {
+                int size = blockSize(block, len, bits);
+                if(size < bestSize)
+                {
+                    best = bits;
+                    bestSize = size;
+                }
+            }
+            return best;
+        }
+
+        private static int blockSize(int[] block, int len, int bits)
+        {
+            int size = 2 + 4 * packedWords(len, bits);
+            if(bits == 32)
+                return size;
+            for(int i = 0; i < len; i++)
+            {
+                int high = block[i] >>> bits;
+                if(high != 0)
+                    size += 1 + vbyteSize(high);
+            }
+            return size;
+        }
+    }
+
+    private static class EliasFanoCodec implements PostingsCodec {
+
+        /*Elias-Fano stores n sorted values no larger than U in about 2 + log2(U/n) bits each, whatever the gaps look like, which suits docID lists.
+        Each value is split into its low L bits, packed back to back, and its high bits, written in unary into a bit vector by setting bit (high + i)
+        for the i-th value. The encoding is
+            L (1 byte) | U (variable byte) | low words | high words
+        */
+
+        @Override
+        public int id()
+        {
+            return 3;
+        }
+
+        @Override
+        public String name()
+        {
+            return "elias-fano";
+        }
+
+        @Override
+        public boolean supports(boolean sorted)
+        {
+            return sorted;
+        }
+
+        @Override
+        public int encodedSize(int[] values, int n, boolean sorted)
+        {
+            int universe = n == 0 ? 0 : values[n - 1];
+            int low = lowBits(universe, n);
+            return 1 + vbyteSize(universe) + 4 * packedWords(n, low) + 4 * highWords(universe, n, low);
+        }
+
+        @Override
+        public void encode(int[] values, int n, boolean sorted, ByteBuffer out)
+        {
+            int universe = n == 0 ? 0 : values[n - 1];
+            int low = lowBits(universe, n);
+            out.put((byte) low);
+            writeVByte(universe, out);
+            pack(values, 0, n, low, out);
+
+            int[] high = new int[highWords(universe, n, low)];
+            for(int i = 0; i < n; i++)
+            {
+                int bit = (values[i] >>> low) + i;
+                high[bit >>> 5] |= 1 << (bit & 31);
+            }
+            for(int word: high)
+                out.putInt(word);
+        }
+
+        @Override
+        public int decode(ByteBuffer in, int offset, int n, boolean sorted, int[] out, int[] scratch)
+        {
+            int start = offset;
+            int low = in.get(offset++) & 0xFF;
+            int universe = readVByte(in, offset);
+            offset += vbyteSize(universe);
+            offset += unpack(in, offset, n, low, out, 0, scratch);
+
+            int words = highWords(universe, n, low);
+            int i = 0;
+            for(int w = 0; w < words && i < n; w++) //Each set bit is one value; its position minus the value's index gives the high bits.
+            {
+                int word = in.getInt(offset + 4 * w);
+                while(word != 0)
+                {
+                    int bit = (w << 5) + Integer.numberOfTrailingZeros(word);
+                    out[i] |= (bit - i) << low;
+                    i++;
+                    word &= word - 1;
+                }
+            }
+            return offset + 4 * words - start;
+        }
+
+        private static int lowBits(int universe, int n)
+        {
+            if(n == 0 || universe / n == 0)
+                return 0;
+            return 31 - Integer.numberOfLeadingZeros(universe / n);
+        }
+
+        private static int highWords(int universe, int n, int low)
+        {
+            return packedWords(n + (universe >>> low) + 1, 1);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*A cursor walks the postings list of a single term one document at a time, in increasing docID order. Scoring and snippets read postings only through
+this interface so that they work the same whether the postings live on the Java heap or in off-heap memory. A cursor is not thread safe, but any number
+of cursors may read the same index at once. Only absolute word positions are stored; the paragraph a word falls in and its place within that paragraph
+come from the document's paragraph offset table.
+*/
+public interface PostingsCursor {
+
+    public int size(); //Number of documents in the postings list (the term's document frequency).
+
+    public boolean next(); //Moves to the next document in the list. Returns false once every document has been read.
+
+    public boolean seek(int docID); //Moves to the given document, in any direction. Returns false, leaving the cursor where it was, if the term does not appear in it.
+
+    public int docId(); //docID of the current document.
+
+    public int count(); //Number of times the term appears in the current document.
+
+    public int word(int i); //Absolute word position of the i-th occurrence of the term in the current document, in increasing order.
+}
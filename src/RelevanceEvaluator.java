@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RelevanceEvaluator {
+
+    /*The evaluator runs a fixed query set against a built index and judges the results against a qrels file, so that any change to scoring or to how the
+    postings are stored can be checked for ranking quality in the same run that measures its speed. Relevance is judged by category: the qrels file names the
+    corpus sub-directory whose documents are relevant to each query, and the size of every category is already counted by the index when it is built.
+    */
+    private InvertedIndex index;
+    private LinkedHashMap<String, String> queries; //Query ID to the text of the query, kept in the order the queries were listed.
+    private HashMap<String, String> qrels; //Query ID to the category of documents that are relevant to it.
+
+    public RelevanceEvaluator(InvertedIndex idx)
+    {
+        index = idx;
+        queries = new LinkedHashMap<String, String>();
+        qrels = new HashMap<String, String>();
+    }
+
+    public void loadEvaluationSet(String directory) throws IOException //Function loads queries.txt and qrels.txt from the Evaluation directory that sits beside the corpus.
+    {
+        String evaluation = directory.replace("Corpus","Evaluation");
+        loadQueries(new File(evaluation, "queries.txt"));
+        loadQrels(new File(evaluation, "qrels.txt"));
+    }
+
+    public void loadQueries(File file) throws IOException //Each line holds a query ID, a tab and then the text of the query.
+    {
+        BufferedReader input = new BufferedReader(new FileReader(file));
+        String line = input.readLine();
+        while(line != null)
+        {
+            int tab = line.indexOf('\t');
+            if(tab > 0 && !line.startsWith("#"))
+            {
+                queries.put(line.substring(0, tab).trim(), line.substring(tab + 1).trim());
+            }
+            line = input.readLine();
+        }
+        input.close();
+    }
+
+    public void loadQrels(File file) throws IOException //Each line holds a query ID followed by the category whose documents are relevant to it.
+    {
+        BufferedReader input = new BufferedReader(new FileReader(file));
+        String line = input.readLine();
+        while(line != null)
+        {
+            String judgement[] = line.trim().split("\\s+");
+            if(judgement.length == 2 && !judgement[0].startsWith("#"))
+            {
+                qrels.put(judgement[0], judgement[1]);
+            }
+            line = input.readLine();
+        }
+        input.close();
+    }
+
+    public ArrayList<String> getQueryText() //Returns the text of every loaded query, in the order they were listed.
+    {
+        return new ArrayList<String>(queries.values());
+    }
+
+    public void evaluate(int k, int threads, BufferedWriter out) throws IOException //Function runs every query in parallel and writes precision@k, recall, average precision and nDCG@k for each.
+    {
+        ArrayList<String> ids = new ArrayList<String>(queries.keySet());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<QueryRun>> runs = new ArrayList<Future<QueryRun>>();
+
+        long start = System.nanoTime();
+        for(final String id: ids) //Searching only reads the index, so every query can be run at the same time.
+        {
+            final String query = queries.get(id);
+            runs.add(pool.submit(new Callable<QueryRun>() {
+                @Override
+                public QueryRun call()
+                {
+                    long queryStart = System.nanoTime();
+                    int[] ranked = index.search(query);
+                    return new QueryRun(ranked, System.nanoTime() - queryStart);
+                }
+            }));
+        }
+
+        double sumPrecision = 0, sumRecall = 0, sumAP = 0, sumNDCG = 0;
+        long maxLatency = 0, sumLatency = 0;
+        int judged = 0;
+
+        out.append(String.format("%-6s %-16s %8s %8s %8s %8s %10s", "QUERY", "CATEGORY", "P@" + k, "RECALL", "AP", "NDCG@" + k, "TIME(ms)"));
+        out.newLine();
+        try
+        {
+            for(int q = 0; q < ids.size(); q++)
+            {
+                QueryRun run = runs.get(q).get();
+                sumLatency += run.latency;
+                maxLatency = Math.max(maxLatency, run.latency);
+
+                String category = qrels.get(ids.get(q));
+                if(category == null) //A query without judgements is still timed, but its quality cannot be measured.
+                {
+                    out.append(String.format("%-6s %-16s %s", ids.get(q), "-", "no relevance judgements"));
+                    out.newLine();
+                    continue;
+                }
+
+                int totalRelevant = index.getRelevantCount(category);
+                double precision = precisionAt(run.ranked, category, k);
+                double recall = recall(run.ranked, category, totalRelevant);
+                double ap = averagePrecision(run.ranked, category, totalRelevant);
+                double ndcg = ndcgAt(run.ranked, category, totalRelevant, k);
+
+                sumPrecision += precision;
+                sumRecall += recall;
+                sumAP += ap;
+                sumNDCG += ndcg;
+                judged++;
+
+                out.append(String.format("%-6s %-16s %8.4f %8.4f %8.4f %8.4f %10.3f", ids.get(q), category, precision, recall, ap, ndcg, run.latency / 1e6));
+                out.newLine();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+
+        out.newLine();
+        if(judged > 0)
+        {
+            out.append(String.format("MEAN P@%d: %.4f  MEAN RECALL: %.4f  MAP: %.4f  MEAN NDCG@%d: %.4f", k, sumPrecision / judged, sumRecall / judged, sumAP / judged, k, sumNDCG / judged));
+            out.newLine();
+        }
+        out.append(String.format("QUERIES: %d  THREADS: %d  WALL TIME: %.3f ms  MEAN LATENCY: %.3f ms  MAX LATENCY: %.3f ms", ids.size(), threads, wall / 1e6,
+                ids.isEmpty() ? 0.0 : sumLatency / 1e6 / ids.size(), maxLatency / 1e6));
+        out.newLine();
+    }
+
+    private double precisionAt(int[] ranked, String category, int k) //Fraction of the top k positions that hold a relevant document. Missing positions count as non-relevant.
+    {
+        int hits = 0;
+        for(int i = 0; i < Math.min(k, ranked.length); i++)
+        {
+            if(index.getCategory(ranked[i]).equals(category))
+                hits++;
+        }
+        return (double) hits / k;
+    }
+
+    private double recall(int[] ranked, String category, int totalRelevant) //Fraction of the relevant documents that were returned at all.
+    {
+        if(totalRelevant == 0)
+            return 0;
+        int hits = 0;
+        for(int docID: ranked)
+        {
+            if(index.getCategory(docID).equals(category))
+                hits++;
+        }
+        return (double) hits / totalRelevant;
+    }
+
+    private double averagePrecision(int[] ranked, String category, int totalRelevant) //Mean of the precision at each rank where a relevant document appears. Relevant documents never returned add zero.
+    {
+        if(totalRelevant == 0)
+            return 0;
+        int hits = 0;
+        double sum = 0;
+        for(int i = 0; i < ranked.length; i++)
+        {
+            if(index.getCategory(ranked[i]).equals(category))
+            {
+                hits++;
+                sum += (double) hits / (i + 1);
+            }
+        }
+        return sum / totalRelevant;
+    }
+
+    private double ndcgAt(int[] ranked, String category, int totalRelevant, int k) //Discounted cumulative gain of the top k results divided by that of a perfect ranking. Relevance is binary.
+    {
+        double dcg = 0;
+        for(int i = 0; i < Math.min(k, ranked.length); i++)
+        {
+            if(index.getCategory(ranked[i]).equals(category))
+                dcg += 1.0 / log2(i + 2);
+        }
+        double idcg = 0;
+        for(int i = 0; i < Math.min(k, totalRelevant); i++)
+        {
+            idcg += 1.0 / log2(i + 2);
+        }
+        return idcg == 0 ? 0 : dcg / idcg;
+    }
+
+    private static double log2(int x)
+    {
+        return Math.log(x) / Math.log(2);
+    }
+
+    private static class QueryRun { //Holds the ranked results of a single query along with how long it took to produce them.
+
+        private int[] ranked;
+        private long latency;
+
+        public QueryRun(int[] r, long nanos)
+        {
+            ranked = r;
+            latency = nanos;
+        }
+    }
+}
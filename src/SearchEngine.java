@@ -2,6 +2,7 @@
 import java.awt.Dimension;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -14,10 +15,50 @@ public class SearchEngine{
 
     /**
      *Use args[0] to pass the path to the "Corpus" directory as input for the program.
+     *Any of the following options may follow it:
+     *  -offheap   moves the postings out of the Java heap once the index is built.
+     *  -evaluate  runs the query set in the Evaluation directory and writes its relevance metrics to evaluation.txt instead of opening the GUI.
+     *  -loadtest  runs the same query set from several threads with the postings on-heap and then off-heap and writes the latency, GC pauses and GC time of each to loadtest.txt.
+     *  -snapshot FILE   saves a snapshot of the built index to FILE. The postings stay on the heap unless -offheap is also given.
+     *  -warmstart FILE  loads the index from a snapshot instead of the corpus and replays recently recorded queries before reporting ready. The timings go to warmup.txt.
+     *  -coldbaseline    without -warmstart, replays the same recorded queries after the index built from the corpus is reported ready, so warmup.txt has rounds to compare with a warm start.
      */
     public static void main(String[] args) throws IOException {
        try
        {
+       boolean offHeap = false;
+       boolean evaluate = false;
+       boolean loadTest = false;
+       String snapshot = null;
+       String warmStart = null;
+       boolean coldBaseline = false;
+       for(int i = 1; i < args.length; i++)
+       {
+           if(args[i].equals("-offheap"))
+               offHeap = true;
+           else if(args[i].equals("-evaluate"))
+               evaluate = true;
+           else if(args[i].equals("-loadtest"))
+               loadTest = true;
+           else if(args[i].equals("-snapshot") && i + 1 < args.length)
+               snapshot = args[++i];
+           else if(args[i].equals("-warmstart") && i + 1 < args.length)
+               warmStart = args[++i];
+           else if(args[i].equals("-coldbaseline"))
+               coldBaseline = true;
+       }
+       
+       if(loadTest)
+       {
+           loadTest(args[0]);
+           return;
+       }
+       if(evaluate)
+       {
+           evaluate(args[0], offHeap, snapshot, warmStart);
+           return;
+       }
+       
         //Open BufferedWriter to write the results to the output file.
        FileWriter write = new FileWriter("results.txt");
        BufferedWriter out = new BufferedWriter(write);
@@ -26,9 +67,33 @@ public class SearchEngine{
        FileReader fileIn = new FileReader("results.txt");
        BufferedReader read = new BufferedReader(fileIn);
        
-       InvertedIndex index = new InvertedIndex(); //Declare a new inverted index.
        String corpusDirectory = args[0]; //Obtain directory of corpus from command line.
-       index.buildIndex(corpusDirectory);
+       InvertedIndex index = openIndex(corpusDirectory, offHeap, warmStart);
+       long loadedAt = WarmUp.uptime();
+       if(snapshot != null && warmStart == null)
+       {
+           saveSnapshot(index, snapshot);
+       }
+       
+       BufferedWriter report = new BufferedWriter(new FileWriter("warmup.txt"));
+       if(warmStart != null) //Warm the JIT and caches with recent queries before taking any from the user.
+       {
+           new WarmUp(index).run(WarmUp.recentQueries(WarmUp.SAMPLE_SIZE), loadedAt, report);
+       }
+       else if(coldBaseline) //Ready as soon as the index is built; the replay afterwards only measures how a cold index settles.
+       {
+           new WarmUp(index).baseline(WarmUp.recentQueries(WarmUp.SAMPLE_SIZE), loadedAt, report);
+       }
+       else
+       {
+           report.append(String.format("INDEX LOADED: %d ms after JVM start", loadedAt));
+           report.newLine();
+           report.append(String.format("READY: %d ms after JVM start (cold)", WarmUp.uptime()));
+           report.newLine();
+       }
+       report.flush(); //Left open so the first user query can be added to the report.
+       printFile("warmup.txt");
+       boolean firstQuery = true;
        
            String query = "";
            while(query!=null) //Continue to process queries until the user clicks "Cancel" or "Exit" on the GUI.
@@ -37,13 +102,25 @@ public class SearchEngine{
                query = (String) JOptionPane.showInputDialog(new JFrame(), "Enter your query:", "IR Final Project - Simple Search Engine", JOptionPane.QUESTION_MESSAGE);
                if(!(query==null)) //If a query is provided, process it and write it to the file.
                {
+                   WarmUp.record(query); //Keep the query so the next warm start can replay it.
+                   long start = System.nanoTime();
                    index.getResults(query, out); //Score related documents and write the results to a file.
                    out.flush(); //Remove any contents that may still be in the buffer.
+                   if(firstQuery) //Time to first query from a user, recorded for cold and warm starts alike so that the two can be compared.
+                   {
+                       String first = String.format("FIRST USER QUERY: %.3f ms, answered %d ms after JVM start", (System.nanoTime() - start) / 1e6, WarmUp.uptime());
+                       report.append(first);
+                       report.newLine();
+                       report.flush();
+                       System.out.println(first);
+                       firstQuery = false;
+                   }
                    showFile(read, query); //Open a new window that displays the results of the submitted query.
                }
                else //Cancel was or "Exit" was pressed - user has no more queries.
                {
                    write.close(); //Close the output handler.
+                   report.close();
                    read.close(); //Close the initial BufferedReader so we open a new one at the top of the document.
                    BufferedReader finalRead = new BufferedReader(new FileReader("results.txt"));
                    showFile(finalRead, "All Searches"); //Open a new window that shows the entire contents of the file.
@@ -59,6 +136,94 @@ public class SearchEngine{
        }
   }
     
+     private static InvertedIndex openIndex(String corpusDirectory, boolean offHeap, String warmStart) throws IOException //Loads the index from a snapshot if one was given, otherwise builds it from the corpus.
+     {
+         if(warmStart != null)
+         {
+             return IndexSnapshot.load(new File(warmStart));
+         }
+         InvertedIndex index = new InvertedIndex();
+         index.buildIndex(corpusDirectory);
+         if(offHeap)
+         {
+             index.moveOffHeap();
+         }
+         return index;
+     }
+     
+     private static void saveSnapshot(InvertedIndex index, String snapshot) throws IOException
+     {
+         long size = IndexSnapshot.save(index, new File(snapshot));
+         System.out.println("SNAPSHOT: " + size + " bytes written to " + snapshot);
+     }
+     
+     private static void evaluate(String corpusDirectory, boolean offHeap, String snapshot, String warmStart) throws IOException //Builds the index, runs the evaluation query set in parallel and reports ranking quality alongside query time.
+     {
+         long start = System.nanoTime();
+         InvertedIndex index = openIndex(corpusDirectory, offHeap, warmStart);
+         long buildTime = System.nanoTime() - start;
+         long saveTime = -1;
+         if(snapshot != null && warmStart == null) //Timed on its own so that it is not counted as building the index.
+         {
+             start = System.nanoTime();
+             saveSnapshot(index, snapshot);
+             saveTime = System.nanoTime() - start;
+         }
+         
+         RelevanceEvaluator evaluator = new RelevanceEvaluator(index);
+         evaluator.loadEvaluationSet(corpusDirectory);
+         
+         BufferedWriter out = new BufferedWriter(new FileWriter("evaluation.txt"));
+         out.append(String.format("%s: %.3f ms", warmStart != null ? "INDEX LOAD TIME" : "INDEX BUILD TIME", buildTime / 1e6));
+         out.newLine();
+         if(saveTime >= 0)
+         {
+             out.append(String.format("SNAPSHOT SAVE TIME: %.3f ms", saveTime / 1e6));
+             out.newLine();
+         }
+         evaluator.evaluate(10, Runtime.getRuntime().availableProcessors(), out);
+         out.close();
+         printFile("evaluation.txt");
+     }
+     
+     private static void loadTest(String corpusDirectory) throws IOException //Compares query latency and GC time with the postings on the heap and then off-heap, using the same index and queries.
+     {
+         InvertedIndex index = new InvertedIndex();
+         index.buildIndex(corpusDirectory);
+         RelevanceEvaluator evaluator = new RelevanceEvaluator(index);
+         evaluator.loadEvaluationSet(corpusDirectory);
+         LoadTest test = new LoadTest(index, evaluator.getQueryText());
+         int threads = Runtime.getRuntime().availableProcessors();
+         
+         BufferedWriter out = new BufferedWriter(new FileWriter("loadtest.txt"));
+         out.append("THREADS: " + threads);
+         out.newLine();
+         test.run("WARMUP", threads, 5000, out); //Give the JIT a chance to compile the search path before anything is measured.
+         System.gc();
+         test.run("ON-HEAP", threads, 20000, out);
+         
+         index.moveOffHeap();
+         out.append("OFF-HEAP POSTINGS: " + index.describeOffHeap());
+         out.newLine();
+         System.gc(); //Collect the on-heap postings now so that their collection is not charged to the off-heap run.
+         test.run("WARMUP", threads, 5000, out);
+         System.gc();
+         test.run("OFF-HEAP", threads, 20000, out);
+         out.close();
+         printFile("loadtest.txt");
+     }
+     
+     private static void printFile(String fileName) throws IOException //Echoes a report to the console as well.
+     {
+         BufferedReader read = new BufferedReader(new FileReader(fileName));
+         String line;
+         while((line = read.readLine()) != null)
+         {
+             System.out.println(line);
+         }
+         read.close();
+     }
+    
      private static void showFile(BufferedReader read, String q) throws IOException{ //Function creates a JScrollPane that outputs the results for a single search or for all searches upon exiting.
        
         String input = "";
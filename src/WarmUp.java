@@ -0,0 +1,179 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class WarmUp {
+
+    /*Even with the index loaded from a snapshot, the first queries after a restart are slow: scoreQuery, the snippet path and the codecs are still being
+    interpreted, and neither the JIT nor the file caches have seen them yet. Before the engine reports that it is ready, the warm-up replays the most
+    recent queries users actually asked, taken from QUERY_LOG, through the same getResults path (with the output thrown away). It repeats the replay
+    round after round until the p99 latency of a round is within SETTLED of the round before, which is taken as the steady state.
+
+    The report gives the time from JVM start until the index was loaded and until the engine was ready, the latency of the very first query, and the round,
+    time and p99 at which the steady state was reached. baseline() writes the same rounds for an index built from the corpus, but only after reporting
+    ready, so that a cold start can be compared round for round with a warm one without the replay counting towards its ready time.
+
+    QUERY_LOG only ever needs its newest SAMPLE_SIZE queries. Once it holds LOG_LIMIT it is rewritten with just those, so it stays small and reading it at
+    start-up costs the same however long the engine has been in use.
+    */
+    public static final String QUERY_LOG = "queryLog.txt";
+    public static final int SAMPLE_SIZE = 200; //Most recent queries replayed.
+    private static final int MAX_ROUNDS = 30;
+    private static final double SETTLED = 0.10;
+    private static final int LOG_LIMIT = 2 * SAMPLE_SIZE; //Lines the log may reach before it is cut back to SAMPLE_SIZE.
+    private static int logged = -1; //Lines in the log, counted on the first record. -1 until then.
+
+    private InvertedIndex index;
+
+    public WarmUp(InvertedIndex idx)
+    {
+        index = idx;
+    }
+
+    public static void record(String query) throws IOException //Appends a query a user asked to the log so that the next warm start can replay it.
+    {
+        if(logged < 0)
+            logged = countLines();
+        BufferedWriter log = new BufferedWriter(new FileWriter(QUERY_LOG, true));
+        log.append(query.replace('\n', ' ').replace('\r', ' '));
+        log.newLine();
+        log.close();
+        logged++;
+        if(logged >= LOG_LIMIT) //Keep only what the next warm start will replay.
+        {
+            ArrayList<String> keep = recentQueries(SAMPLE_SIZE);
+            log = new BufferedWriter(new FileWriter(QUERY_LOG));
+            for(String kept: keep)
+            {
+                log.append(kept);
+                log.newLine();
+            }
+            log.close();
+            logged = keep.size();
+        }
+    }
+
+    private static int countLines() throws IOException
+    {
+        if(!new File(QUERY_LOG).exists())
+            return 0;
+        BufferedReader log = new BufferedReader(new FileReader(QUERY_LOG));
+        int lines = 0;
+        while(log.readLine() != null)
+            lines++;
+        log.close();
+        return lines;
+    }
+
+    public static ArrayList<String> recentQueries(int max) throws IOException //Returns up to max of the newest queries in the log, oldest first.
+    {
+        ArrayDeque<String> recent = new ArrayDeque<String>();
+        if(!new File(QUERY_LOG).exists())
+            return new ArrayList<String>();
+        BufferedReader log = new BufferedReader(new FileReader(QUERY_LOG));
+        String line;
+        while((line = log.readLine()) != null)
+        {
+            if(line.trim().isEmpty())
+                continue;
+            recent.addLast(line);
+            if(recent.size() > max)
+                recent.removeFirst();
+        }
+        log.close();
+        return new ArrayList<String>(recent);
+    }
+
+    public static long uptime() //Milliseconds since the JVM started.
+    {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    public void run(List<String> queries, long loadedAt, BufferedWriter out) throws IOException //Replays the queries until latency settles and writes the report. loadedAt is the uptime when the index finished loading.
+    {
+        out.append(String.format("INDEX LOADED: %d ms after JVM start", loadedAt));
+        out.newLine();
+        if(queries.isEmpty())
+        {
+            out.append("No recorded queries to replay (" + QUERY_LOG + " is empty or missing), so the engine starts cold.");
+            out.newLine();
+            out.append(String.format("READY: %d ms after JVM start", uptime()));
+            out.newLine();
+            return;
+        }
+
+        int rounds = replay(queries, out);
+        out.append(String.format("READY: %d ms after JVM start, %d queries replayed %d times", uptime(), queries.size(), rounds));
+        out.newLine();
+        out.flush();
+    }
+
+    public void baseline(List<String> queries, long loadedAt, BufferedWriter out) throws IOException //Reports a cold start as ready, then replays the queries the way run() does so the rounds can be compared.
+    {
+        out.append(String.format("INDEX LOADED: %d ms after JVM start", loadedAt));
+        out.newLine();
+        out.append(String.format("READY: %d ms after JVM start (cold)", uptime()));
+        out.newLine();
+        if(queries.isEmpty())
+        {
+            out.append("No recorded queries to replay (" + QUERY_LOG + " is empty or missing), so there is no cold baseline.");
+            out.newLine();
+            return;
+        }
+        out.append("COLD BASELINE: replaying " + queries.size() + " recorded queries after ready");
+        out.newLine();
+        replay(queries, out);
+        out.flush();
+    }
+
+    private int replay(List<String> queries, BufferedWriter out) throws IOException //Replays the queries round after round until the p99 settles, writing a line per round. Returns the rounds run.
+    {
+        BufferedWriter discard = new BufferedWriter(Writer.nullWriter()); //The replayed results are not wanted, only the work of producing them.
+        long[] latencies = new long[queries.size()];
+        long previous = -1;
+        boolean settled = false;
+        int round;
+        for(round = 1; round <= MAX_ROUNDS && !settled; round++)
+        {
+            for(int i = 0; i < queries.size(); i++)
+            {
+                long start = System.nanoTime();
+                index.getResults(queries.get(i), discard);
+                latencies[i] = System.nanoTime() - start;
+                if(round == 1 && i == 0)
+                {
+                    out.append(String.format("FIRST QUERY: %.3f ms, answered %d ms after JVM start", latencies[0] / 1e6, uptime()));
+                    out.newLine();
+                }
+            }
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            long p99 = LoadTest.percentile(sorted, 0.99);
+            out.append(String.format("ROUND %d: P50 %.3f ms  P99 %.3f ms  (%d ms after JVM start)", round, LoadTest.percentile(sorted, 0.50) / 1e6, p99 / 1e6, uptime()));
+            out.newLine();
+
+            if(previous > 0 && Math.abs(p99 - previous) <= SETTLED * previous)
+            {
+                settled = true;
+                out.append(String.format("STEADY STATE: round %d, P99 %.3f ms, reached %d ms after JVM start", round, p99 / 1e6, uptime()));
+                out.newLine();
+            }
+            previous = p99;
+        }
+        if(!settled)
+        {
+            out.append("P99 had not settled after " + MAX_ROUNDS + " rounds.");
+            out.newLine();
+        }
+        return round - 1;
+    }
+}